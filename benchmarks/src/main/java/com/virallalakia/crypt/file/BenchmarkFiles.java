@@ -0,0 +1,99 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generates the files used by the benchmarks, files are generated under the directory provided with system
+ * property vfc.benchmark.dir or under the temporary directory.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class BenchmarkFiles {
+
+    static final String SALT = "_##_V_I_R_A_L__L_A_L_A_K_I_A_##_";
+
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    private BenchmarkFiles() {
+    }
+
+    static File createTempDir(String prefix) throws IOException {
+        String baseDir = System.getProperty("vfc.benchmark.dir", System.getProperty("java.io.tmpdir"));
+        return Files.createTempDirectory(new File(baseDir).toPath(), prefix).toFile();
+    }
+
+    /**
+     * @param size size with unit, e.g. 512, 1KB, 100MB, 10GB
+     * @return size in bytes
+     */
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        long unit = 1;
+        if (value.endsWith("KB")) {
+            unit = 1024L;
+        } else if (value.endsWith("MB")) {
+            unit = 1024L * 1024;
+        } else if (value.endsWith("GB")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 2);
+        }
+        return Long.parseLong(value) * unit;
+    }
+
+    /**
+     * Writes a file of random content, the content is random per file but not per byte to generate large files
+     * quickly.
+     */
+    static void createFile(File file, long size, Random random) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(WRITE_BUFFER_SIZE, Math.max(size, 1))];
+        random.nextBytes(bytes);
+        ByteBuffer byteBuf = ByteBuffer.wrap(bytes);
+        try (FileOutputStream fos = new FileOutputStream(file); FileChannel channel = fos.getChannel()) {
+            for (long position = 0; position < size; position += byteBuf.limit()) {
+                byteBuf.clear();
+                byteBuf.limit((int) Math.min(bytes.length, size - position));
+                bytes[0] = (byte) random.nextInt();
+                while (byteBuf.hasRemaining()) {
+                    channel.write(byteBuf);
+                }
+            }
+        }
+    }
+
+    static void deleteTree(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+}
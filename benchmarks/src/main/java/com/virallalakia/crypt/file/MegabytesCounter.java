@@ -0,0 +1,27 @@
+package com.virallalakia.crypt.file;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary result of the benchmarks, reported as megabytes per second with output time unit of seconds.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class MegabytesCounter {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    public double megabytes;
+
+    public void add(long bytes) {
+        megabytes += bytes / MEGABYTE;
+    }
+
+}
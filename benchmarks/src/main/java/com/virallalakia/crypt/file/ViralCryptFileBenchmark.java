@@ -0,0 +1,83 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of encrypting one file on disk per file size, files are generated at the start of the trial. Sizes
+ * are at most 100MB by default, large files are benchmarked with e.g. -p fileSize=1GB,10GB (with as much free disk
+ * space), they can be split into regions with e.g. -p threads=8 and -p asyncBuffers=0 compares synchronous
+ * read/write only.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViralCryptFileBenchmark {
+
+    @Param({ "1KB", "1MB", "100MB" })
+    private String fileSize;
+
+    @Param({ "1" })
+    private int threads;
+
+    @Param({ "0", "4" })
+    private int asyncBuffers;
+
+    private File dir;
+    private File ipFile;
+    private File opFile;
+    private long size;
+    private ViralCryptEngine engine;
+
+    @Setup
+    public void setup() throws IOException {
+        size = BenchmarkFiles.parseSize(fileSize);
+        dir = BenchmarkFiles.createTempDir("vfc-file-");
+        ipFile = new File(dir, "input.bin");
+        opFile = new File(dir, "output.bin");
+        BenchmarkFiles.createFile(ipFile, size, new Random(size));
+        engine = new ViralCryptEngine(BenchmarkFiles.SALT, ViralCryptEngine.DEFAULT_BUFFER_SIZE, threads,
+                asyncBuffers);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.close();
+        BenchmarkFiles.deleteTree(dir);
+    }
+
+    @Benchmark
+    public ViralCryptResult cryptFile(MegabytesCounter megabytesCounter, FilesCounter filesCounter) {
+        ViralCryptResult result = engine.cryptFile(ipFile.getPath(), opFile.getPath());
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.getError());
+        }
+        megabytesCounter.add(size);
+        filesCounter.files++;
+        return result;
+    }
+
+}
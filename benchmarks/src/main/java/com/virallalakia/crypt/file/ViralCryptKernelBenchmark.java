@@ -0,0 +1,65 @@
+package com.virallalakia.crypt.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * XOR throughput of the kernel in memory, per buffer size and salt length.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViralCryptKernelBenchmark {
+
+    @Param({ "4096", "65536", "1048576" })
+    private int bufferSize;
+
+    @Param({ "4", "32", "256" })
+    private int saltLength;
+
+    private ViralCryptKernel kernel;
+    private ByteBuffer byteBuf;
+
+    @Setup
+    public void setup() {
+        StringBuilder salt = new StringBuilder();
+        while (salt.length() < saltLength) {
+            salt.append(BenchmarkFiles.SALT);
+        }
+        kernel = ViralCryptKernel.forSalt(salt.substring(0, saltLength));
+        byte[] bytes = new byte[bufferSize];
+        new Random(bufferSize).nextBytes(bytes);
+        byteBuf = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        byteBuf.put(bytes).flip();
+    }
+
+    @Benchmark
+    public ByteBuffer crypt(MegabytesCounter megabytesCounter) {
+        kernel.crypt(byteBuf, 0);
+        megabytesCounter.add(bufferSize);
+        return byteBuf;
+    }
+
+}
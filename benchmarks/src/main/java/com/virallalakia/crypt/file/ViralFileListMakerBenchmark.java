@@ -0,0 +1,122 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of walking and encrypting a tree of many small files, the tree is generated at the start of the trial
+ * with 100 files per directory, files are encrypted while the tree is being walked. Larger trees are benchmarked
+ * with e.g. -p fileCount=100000.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViralFileListMakerBenchmark {
+
+    private static final int FILES_PER_DIR = 100;
+    private static final int QUEUE_SIZE = 4096;
+
+    @Param({ "1000", "10000" })
+    private int fileCount;
+
+    @Param({ "1KB" })
+    private String fileSize;
+
+    private File dir;
+    private File ipDir;
+    private File opDir;
+    private ViralCryptEngine engine;
+
+    @Setup
+    public void setup() throws IOException {
+        long size = BenchmarkFiles.parseSize(fileSize);
+        Random random = new Random(fileCount);
+        dir = BenchmarkFiles.createTempDir("vfc-tree-");
+        ipDir = new File(dir, "input");
+        opDir = new File(dir, "output");
+        for (int i = 0; i < fileCount; i++) {
+            File subDir = new File(ipDir, "d" + (i / FILES_PER_DIR));
+            subDir.mkdirs();
+            BenchmarkFiles.createFile(new File(subDir, "f" + i + ".txt"), size, random);
+        }
+        engine = new ViralCryptEngine(BenchmarkFiles.SALT);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.close();
+        BenchmarkFiles.deleteTree(dir);
+    }
+
+    private ViralFileCrypt.ViralFileListMaker newViralFileListMaker(BlockingQueue<String> paths) {
+        return new ViralFileCrypt.ViralFileListMaker(false, null, "txt", null,
+                ViralPathFilter.of(ipDir.toPath(), Collections.singleton(opDir.toPath().normalize())), null, paths);
+    }
+
+    @Benchmark
+    public int walkTree(FilesCounter filesCounter) {
+        BlockingQueue<String> paths = new LinkedBlockingQueue<String>();
+        ViralFileCrypt.ViralFileListMaker viralFileListMaker = newViralFileListMaker(paths);
+        viralFileListMaker.walk(ipDir.toPath(), Integer.MAX_VALUE);
+        filesCounter.files += viralFileListMaker.getCount();
+        return paths.size();
+    }
+
+    @Benchmark
+    public long walkAndCryptTree(FilesCounter filesCounter, MegabytesCounter megabytesCounter)
+            throws InterruptedException {
+        BlockingQueue<String> paths = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+        final ViralFileCrypt.ViralFileListMaker viralFileListMaker = newViralFileListMaker(paths);
+        Thread walker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                viralFileListMaker.walk(ipDir.toPath(), Integer.MAX_VALUE);
+            }
+
+        });
+        walker.start();
+        long bytes = 0;
+        int ipDirPathLength = ipDir.getAbsolutePath().length();
+        String path;
+        while (!ViralFileCrypt.ViralFileListMaker.END_OF_PATHS.equals(path = paths.take())) {
+            ViralCryptResult result = engine.cryptFile(path, opDir.getPath() + path.substring(ipDirPathLength));
+            if (!result.isSuccess()) {
+                throw new IllegalStateException(result.getError());
+            }
+            bytes += result.getBytes();
+            filesCounter.files++;
+        }
+        walker.join();
+        megabytesCounter.add(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files atomically: the new content is written to a temporary file next to the file, synced, and moved over
+ * the file, so that a reader (or an interrupted run) sees either the old or the new file, never a partial one. Where
+ * the file system does not support atomic moves, the temporary file is moved over the file with a plain move.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralAtomicFile {
+
+    static final String TEMP_EXT = ".tmp";
+
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    /**
+     * Content of a file to be written.
+     */
+    interface Content {
+
+        /**
+         * Writes the content, any stream wrapping the output stream must be flushed before returning.
+         */
+        void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    private ViralAtomicFile() {
+    }
+
+    /**
+     * Writes the content to a temporary file, syncs it and replaces the file with it.
+     */
+    static void write(File file, Content content) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + TEMP_EXT);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                BufferedOutputStream bos = new BufferedOutputStream(fos, STREAM_BUFFER_SIZE);
+                content.writeTo(bos);
+                bos.flush();
+                fos.getFD().sync();
+            }
+            replace(tempFile, file);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the temporary file over the file, atomically where the file system supports it.
+     */
+    static void replace(File tempFile, File file) throws IOException {
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * With --checksum, computes the checksums of the input and output file in the same pass as the file is
+ * encrypted/decrypted and keeps them with the output file, with --verify, verifies the files against them.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralChecksumMode implements ViralCryptMode {
+
+    private final ViralCryptEngine engine;
+    private final ViralCryptChecksums checksums;
+    private final String checksumsDirPath;
+
+    /**
+     * @param checksumsDirPath directory of the checksums, paths of the files are kept relative to it
+     */
+    ViralChecksumMode(ViralCryptEngine engine, ViralCryptChecksums checksums, String checksumsDirPath) {
+        this.engine = engine;
+        this.checksums = checksums;
+        this.checksumsDirPath = checksumsDirPath;
+    }
+
+    ViralCryptChecksums getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * @return nearest directory with checksums from the directory up, so that files in sub-directories of an output
+     *         directory can be verified too, the directory itself if none is found
+     */
+    static String findChecksumsDirPath(String dirPath) {
+        for (File dir = new File(dirPath); dir != null; dir = dir.getParentFile()) {
+            if (new File(dir, ViralCryptChecksums.CHECKSUMS_FILE).isFile()) {
+                return dir.getPath();
+            }
+        }
+        return dirPath;
+    }
+
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        String opRelativePath = ViralFileCrypt.getRelativeEntryPath(checksumsDirPath, opFilePath);
+        MessageDigest ipChecksum = ViralCryptChecksums.newDigest(checksums.getAlgorithm());
+        MessageDigest opChecksum = ViralCryptChecksums.newDigest(checksums.getAlgorithm());
+        ViralCryptResult result = engine.cryptFile(ipFilePath, opFilePath,
+                (ipDigest == null ? ipChecksum : ViralCryptChecksums.tee(ipDigest, ipChecksum)), opChecksum);
+        if (result.isSuccess()) {
+            checksums.put(opRelativePath, new ViralCryptChecksums.Entry(ViralCryptChecksums.toHex(ipChecksum
+                    .digest()), ViralCryptChecksums.toHex(opChecksum.digest())));
+        } else {
+            checksums.remove(opRelativePath);
+        }
+        return result;
+    }
+
+    /**
+     * Verifies the file against its checksums with a single read, both the checksum of the file and the checksum of
+     * its encrypted/decrypted content must match.
+     */
+    ViralCryptResult verifyFile(String ipFilePath) {
+        String ipRelativePath = ViralFileCrypt.getRelativeEntryPath(checksumsDirPath, ipFilePath);
+        if (ipRelativePath.startsWith(".vfc-")) {
+            return ViralCryptResult.skipped(ipFilePath, ipFilePath);
+        }
+        ViralCryptChecksums.Entry entry = checksums.get(ipRelativePath);
+        if (entry == null) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath, "no checksum of the file: " + ipFilePath);
+        }
+        MessageDigest opChecksum = ViralCryptChecksums.newDigest(checksums.getAlgorithm());
+        MessageDigest ipChecksum = ViralCryptChecksums.newDigest(checksums.getAlgorithm());
+        long bytes;
+        try {
+            bytes = engine.digestFile(ipFilePath, opChecksum, ipChecksum);
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath,
+                    "error while reading the file" + " [" + e.getMessage() + "]");
+        }
+        if (!entry.getOutputChecksum().equals(ViralCryptChecksums.toHex(opChecksum.digest()))) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath, "checksum mismatch of the file: " + ipFilePath);
+        }
+        if (!entry.getInputChecksum().equals(ViralCryptChecksums.toHex(ipChecksum.digest()))) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath,
+                    "checksum mismatch of the encrpyted/decrypted content (wrong salt?) of the file: " + ipFilePath);
+        }
+        return ViralCryptResult.success(ipFilePath, ipFilePath, bytes);
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Append-only journal of the input files (relative to the input directory) completed by a multi-file run, kept in
+ * the output directory (in the input directory for --in-place) till the run is completed, so that an interrupted run
+ * can be resumed without processing the completed files again. Records are synced in batches, a record lost with the
+ * process only means that its file is processed again, as output files are replaced atomically. An in-place run syncs
+ * the record of every file before deleting the journal of the file.
+ *
+ * <pre>
+ * header  : magic (int), version (int), salt fingerprint (long), input (UTF)
+ * records : input path (UTF) of every completed file, a torn last record is dropped
+ * </pre>
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptCheckpoint {
+
+    static final String CHECKPOINT_FILE = ".vfc-checkpoint";
+
+    private static final int MAGIC = 0x5646434B; // VFCK
+    private static final int VERSION = 1;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024; // 1mb
+    private static final int SYNC_BATCH_SIZE = 1024;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Set<String> completedPaths;
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pendingRecords = new DataOutputStream(pendingBytes);
+    private int pendingCount;
+    private long lastSync = System.currentTimeMillis();
+
+    private ViralCryptCheckpoint(File file, FileChannel channel, Set<String> completedPaths) {
+        this.file = file;
+        this.channel = channel;
+        this.completedPaths = completedPaths;
+    }
+
+    /**
+     * Counts the bytes read through it, so that the length of the valid records is known without relying on
+     * available() of the file.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+    }
+
+    /**
+     * Opens the checkpoint of the directory, the files completed by the interrupted run are loaded and new
+     * records are appended. A new checkpoint is started if there is none, if its header is incomplete or if it was
+     * written by a run with another salt or input.
+     *
+     * @throws IOException if the checkpoint is not a valid checkpoint
+     */
+    static ViralCryptCheckpoint open(File dir, long fingerprint, String input) throws IOException {
+        File file = new File(dir, CHECKPOINT_FILE);
+        Set<String> completedPaths = new HashSet<String>();
+        long validLength = 0;
+        if (file.isFile()) {
+            try (FileInputStream fis = new FileInputStream(file);
+                    CountingInputStream cis = new CountingInputStream(new BufferedInputStream(fis,
+                            STREAM_BUFFER_SIZE));
+                    DataInputStream dis = new DataInputStream(cis)) {
+                if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                    throw new IOException("invalid checkpoint: " + file.getPath());
+                }
+                if (dis.readLong() == fingerprint && input.equals(dis.readUTF())) {
+                    validLength = cis.count;
+                    while (true) {
+                        completedPaths.add(dis.readUTF());
+                        validLength = cis.count;
+                    }
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // the records after the last valid record were torn by the interrupted run
+            }
+        }
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ViralCryptCheckpoint checkpoint = new ViralCryptCheckpoint(file, channel, completedPaths);
+        try {
+            if (validLength > 0) {
+                // drops the torn last record, if any, before appending
+                channel.truncate(validLength);
+                channel.position(validLength);
+            } else {
+                channel.truncate(0);
+                checkpoint.pendingRecords.writeInt(MAGIC);
+                checkpoint.pendingRecords.writeInt(VERSION);
+                checkpoint.pendingRecords.writeLong(fingerprint);
+                checkpoint.pendingRecords.writeUTF(input);
+                checkpoint.sync();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return true if the input file was completed by the interrupted run, can be called by any thread
+     */
+    boolean isCompleted(String inputPath) {
+        return completedPaths.contains(inputPath);
+    }
+
+    /**
+     * @return number of input files completed by the interrupted run
+     */
+    int getCompletedCount() {
+        return completedPaths.size();
+    }
+
+    /**
+     * @return paths of the input files completed by the interrupted run
+     */
+    Set<String> getCompletedPaths() {
+        return Collections.unmodifiableSet(completedPaths);
+    }
+
+    /**
+     * Records the input file as completed, records are synced once a batch is full or a second has passed since the
+     * last sync.
+     */
+    synchronized void complete(String inputPath) throws IOException {
+        pendingRecords.writeUTF(inputPath);
+        pendingCount++;
+        if (pendingCount >= SYNC_BATCH_SIZE || System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes and syncs the pending records.
+     */
+    synchronized void sync() throws IOException {
+        if (pendingBytes.size() > 0) {
+            ByteBuffer records = ByteBuffer.wrap(pendingBytes.toByteArray());
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(false);
+            pendingBytes.reset();
+        }
+        pendingCount = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Syncs the pending records and closes the checkpoint, the checkpoint is deleted if the run is completed.
+     *
+     * @throws IOException if the records could not be synced or the checkpoint could not be deleted
+     */
+    synchronized void close(boolean completed) throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+        if (completed && !file.delete() && file.exists()) {
+            throw new IOException("could not delete checkpoint: " + file.getPath());
+        }
+    }
+
+}
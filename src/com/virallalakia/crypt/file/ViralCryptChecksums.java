@@ -0,0 +1,386 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Checksums of the input and output files of the runs into an output directory, kept in .vfc-checksums in the output
+ * directory. Every line after the header has the checksum of the input file, the checksum of the output file and the
+ * path of the output file relative to the output directory, so that the output files can be verified with a single
+ * read of each output file, and their decrypted content against the input checksums in the same read.
+ *
+ * <pre>
+ * # vfc-checksums &lt;algorithm&gt;
+ * &lt;input-checksum&gt; &lt;output-checksum&gt; &lt;output-path&gt;
+ * </pre>
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptChecksums {
+
+    static final String CHECKSUMS_FILE = ".vfc-checksums";
+    static final String CRC32_ALGORITHM = "crc32";
+    static final String CRC32C_ALGORITHM = "crc32c";
+    static final String SHA256_ALGORITHM = "sha256";
+
+    private static final String HEADER = "# vfc-checksums ";
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    /**
+     * MessageDigest of a 32 bits checksum, so that checksums and hashes are computed the same way.
+     */
+    private static class ChecksumDigest extends MessageDigest {
+
+        /**
+         * Checksum.update(ByteBuffer) of Java 9 or later, null before, resolved once into a constant method handle
+         * which is called as fast as the method itself.
+         */
+        private static final MethodHandle UPDATE_BUFFER = findUpdateBuffer();
+
+        private final Checksum checksum;
+
+        ChecksumDigest(String algorithm, Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        private static MethodHandle findUpdateBuffer() {
+            try {
+                return MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                        MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            checksum.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            checksum.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            if (checksum instanceof CRC32) {
+                ((CRC32) checksum).update(input);
+            } else if (UPDATE_BUFFER != null) {
+                try {
+                    UPDATE_BUFFER.invokeExact(checksum, input);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                super.engineUpdate(input);
+            }
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            long value = checksum.getValue();
+            checksum.reset();
+            return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+        }
+
+        @Override
+        protected void engineReset() {
+            checksum.reset();
+        }
+
+    }
+
+    /**
+     * MessageDigest which updates two digests with the same content, their values are read from the digests
+     * themselves.
+     */
+    private static class TeeDigest extends MessageDigest {
+
+        private final MessageDigest first;
+        private final MessageDigest second;
+
+        TeeDigest(MessageDigest first, MessageDigest second) {
+            super(first.getAlgorithm() + "+" + second.getAlgorithm());
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            first.update(input);
+            second.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            first.update(input, offset, len);
+            second.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            first.update(input.duplicate());
+            second.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return new byte[0];
+        }
+
+        @Override
+        protected void engineReset() {
+            first.reset();
+            second.reset();
+        }
+
+    }
+
+    /**
+     * MessageDigest which updates the digest with the first bytes of the content only, its value is read from the
+     * digest itself.
+     */
+    private static class HeadDigest extends MessageDigest {
+
+        private final MessageDigest digest;
+        private final long length;
+        private long remaining;
+
+        HeadDigest(MessageDigest digest, long length) {
+            super(digest.getAlgorithm() + "-head");
+            this.digest = digest;
+            this.length = length;
+            this.remaining = length;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            if (remaining > 0) {
+                digest.update(input);
+                remaining--;
+            }
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            int count = (int) Math.min(len, remaining);
+            if (count > 0) {
+                digest.update(input, offset, count);
+                remaining -= count;
+            }
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            int count = (int) Math.min(input.remaining(), remaining);
+            if (count > 0) {
+                ByteBuffer head = input.duplicate();
+                head.limit(head.position() + count);
+                digest.update(head);
+                remaining -= count;
+            }
+            input.position(input.limit());
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return new byte[0];
+        }
+
+        @Override
+        protected void engineReset() {
+            digest.reset();
+            remaining = length;
+        }
+
+    }
+
+    /**
+     * Entry of an output file.
+     */
+    static class Entry {
+
+        private final String inputChecksum;
+        private final String outputChecksum;
+
+        public Entry(String inputChecksum, String outputChecksum) {
+            super();
+            this.inputChecksum = inputChecksum;
+            this.outputChecksum = outputChecksum;
+        }
+
+        public String getInputChecksum() {
+            return inputChecksum;
+        }
+
+        public String getOutputChecksum() {
+            return outputChecksum;
+        }
+
+    }
+
+    private final File file;
+    private final String algorithm;
+    private final Map<String, Entry> entries;
+
+    private ViralCryptChecksums(File file, String algorithm, Map<String, Entry> entries) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.entries = entries;
+    }
+
+    /**
+     * @param algorithm crc32, crc32c (Java 9 or later) or sha256
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    static MessageDigest newDigest(String algorithm) {
+        switch (algorithm) {
+            case CRC32_ALGORITHM:
+                return new ChecksumDigest(algorithm, new CRC32());
+            case CRC32C_ALGORITHM:
+                try {
+                    // CRC32C is available since Java 9, it is computed with CPU instructions where supported
+                    return new ChecksumDigest(algorithm,
+                            (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance());
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("checksum crc32c needs Java 9 or later");
+                }
+            case SHA256_ALGORITHM:
+                try {
+                    return MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("checksum sha256 is not available", e);
+                }
+            default:
+                throw new IllegalArgumentException("unsupported checksum: " + algorithm);
+        }
+    }
+
+    /**
+     * @return digest which updates both the digests in the same pass
+     */
+    static MessageDigest tee(MessageDigest first, MessageDigest second) {
+        return new TeeDigest(first, second);
+    }
+
+    /**
+     * @return digest which updates the digest with the first bytes of the content only, up to the length
+     */
+    static MessageDigest head(MessageDigest digest, long length) {
+        return new HeadDigest(digest, length);
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Loads the checksums of the directory.
+     *
+     * @param algorithm algorithm of the checksums to be added, existing checksums of another algorithm are
+     *        discarded, null to keep the algorithm of the existing checksums
+     * @return checksums, null if algorithm is null and the directory has no checksums
+     */
+    static ViralCryptChecksums load(File dir, String algorithm) throws IOException {
+        File file = new File(dir, CHECKSUMS_FILE);
+        Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+        if (!file.isFile()) {
+            return (algorithm == null ? null : new ViralCryptChecksums(file, algorithm, entries));
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), STREAM_BUFFER_SIZE)) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(HEADER)) {
+                throw new IOException("invalid checksums: " + file.getPath());
+            }
+            String fileAlgorithm = header.substring(HEADER.length()).trim();
+            if (algorithm != null && !algorithm.equals(fileAlgorithm)) {
+                return new ViralCryptChecksums(file, algorithm, entries);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(' ');
+                int second = (first == -1 ? -1 : line.indexOf(' ', first + 1));
+                if (second == -1) {
+                    throw new IOException("invalid checksums: " + file.getPath());
+                }
+                entries.put(line.substring(second + 1),
+                        new Entry(line.substring(0, first), line.substring(first + 1, second)));
+            }
+            return new ViralCryptChecksums(file, fileAlgorithm, entries);
+        }
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param outputPath path of the output file relative to the output directory, with / as separator
+     * @return entry of the output file, null if there is no such entry
+     */
+    Entry get(String outputPath) {
+        return entries.get(outputPath);
+    }
+
+    /**
+     * Adds or replaces the entry of the output file, can be called by any thread.
+     */
+    void put(String outputPath, Entry entry) {
+        entries.put(outputPath, entry);
+    }
+
+    void remove(String outputPath) {
+        entries.remove(outputPath);
+    }
+
+    /**
+     * Saves the checksums sorted by path, must not be called while entries are being added.
+     */
+    void save() throws IOException {
+        ViralAtomicFile.write(file, new ViralAtomicFile.Content() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                writer.write(HEADER + algorithm + "\n");
+                for (Map.Entry<String, Entry> entry : new TreeMap<String, Entry>(entries).entrySet()) {
+                    writer.write(entry.getValue().getInputChecksum() + " " + entry.getValue().getOutputChecksum()
+                            + " " + entry.getKey() + "\n");
+                }
+                writer.flush();
+            }
+
+        });
+    }
+
+}
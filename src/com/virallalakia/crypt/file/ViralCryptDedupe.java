@@ -0,0 +1,308 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the output files of the runs into an output directory by the size and content hash of their input files,
+ * kept in .vfc-dedupe in the output directory. Identical input files give identical output files with the same salt,
+ * so the output of a duplicate input file is a copy (or, if asked for, a hard link) of the cached output instead of
+ * being encrypted/decrypted again. The cache keeps the most recently used entries only. The sizes of the cached
+ * entries and the hashes of their first 64kb are indexed, so that only the first 64kb of input files with the size
+ * of a cached entry are hashed before they are encrypted/decrypted, and only input files which also match the first
+ * 64kb of a cached entry are hashed in full, other input files are hashed in the same pass.
+ *
+ * <pre>
+ * header  : magic (int), version (int), salt fingerprint (long), number of entries (int)
+ * entries : size and SHA-256 of the input file (UTF), SHA-256 of its first 64kb (UTF), last modified time of the
+ *           output file (long), output path (UTF), least recently used first
+ * </pre>
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptDedupe {
+
+    static final String DEDUPE_FILE = ".vfc-dedupe";
+    static final int MAX_ENTRIES = 100000;
+    static final int HEAD_SIZE = 64 * 1024; // 64kb
+
+    private static final int MAGIC = 0x56464344; // VFCD
+    private static final int VERSION = 2;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    private final File file;
+    private final long fingerprint;
+    private final int maxEntries;
+    private final Map<Long, Integer> sizes = new HashMap<Long, Integer>();
+    private final Map<String, Integer> heads = new HashMap<String, Integer>();
+    private final LinkedHashMap<String, CacheEntry> outputs;
+    private int hits;
+
+    /**
+     * Cached output file, the output file is used only if it was not modified since it was cached.
+     */
+    static class CachedOutput {
+
+        private final String outputPath;
+        private final long lastModified;
+
+        public CachedOutput(String outputPath, long lastModified) {
+            super();
+            this.outputPath = outputPath;
+            this.lastModified = lastModified;
+        }
+
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+    /**
+     * Cached output with the key of the size and first 64kb of its input file.
+     */
+    private static class CacheEntry {
+
+        private final String headKey;
+        private final CachedOutput cachedOutput;
+
+        CacheEntry(String headKey, CachedOutput cachedOutput) {
+            this.headKey = headKey;
+            this.cachedOutput = cachedOutput;
+        }
+
+    }
+
+    private ViralCryptDedupe(File file, long fingerprint, int maxEntries) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.maxEntries = maxEntries;
+        this.outputs = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() <= ViralCryptDedupe.this.maxEntries) {
+                    return false;
+                }
+                removeIndexes(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+
+        };
+    }
+
+    /**
+     * Loads the cache of the output directory, the cache is empty if it does not exist or if it was saved for
+     * another salt or by an older version.
+     */
+    static ViralCryptDedupe load(File outputDir, long fingerprint) throws IOException {
+        return load(outputDir, fingerprint, MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries number of most recently used entries kept by the cache, e.g. fewer entries for tests
+     */
+    static ViralCryptDedupe load(File outputDir, long fingerprint, int maxEntries) throws IOException {
+        File file = new File(outputDir, DEDUPE_FILE);
+        ViralCryptDedupe dedupe = new ViralCryptDedupe(file, fingerprint, maxEntries);
+        if (file.isFile()) {
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE))) {
+                if (dis.readInt() != MAGIC) {
+                    throw new IOException("invalid dedupe cache: " + file.getPath());
+                }
+                if (dis.readInt() == VERSION && dis.readLong() == fingerprint) {
+                    int count = dis.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String key = dis.readUTF();
+                        String headKey = dis.readUTF();
+                        long lastModified = dis.readLong();
+                        dedupe.put(key, new CacheEntry(headKey, new CachedOutput(dis.readUTF(), lastModified)));
+                    }
+                }
+            } catch (EOFException e) {
+                throw new IOException("incomplete dedupe cache: " + file.getPath(), e);
+            }
+        }
+        return dedupe;
+    }
+
+    private static String getKey(long size, byte[] hash) {
+        return size + " " + ViralCryptChecksums.toHex(hash);
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        counts.put(key, (count == null ? 1 : count + 1));
+    }
+
+    private static <K> void decrement(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        if (count != null && count > 1) {
+            counts.put(key, count - 1);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    private static Long getSize(String key) {
+        return Long.valueOf(key.substring(0, key.indexOf(' ')));
+    }
+
+    private void removeIndexes(String key, CacheEntry entry) {
+        decrement(sizes, getSize(key));
+        decrement(heads, entry.headKey);
+    }
+
+    private void put(String key, CacheEntry entry) {
+        CacheEntry previous = outputs.put(key, entry);
+        if (previous != null) {
+            decrement(heads, previous.headKey);
+        } else {
+            increment(sizes, getSize(key));
+        }
+        increment(heads, entry.headKey);
+    }
+
+    /**
+     * @return true if an entry of an input file with the size is cached
+     */
+    synchronized boolean containsSize(long size) {
+        return sizes.containsKey(size);
+    }
+
+    /**
+     * @param headHash SHA-256 of the first 64kb of the input file
+     * @return true if an entry of an input file with the size and the same first 64kb is cached
+     */
+    synchronized boolean containsHead(long size, byte[] headHash) {
+        return heads.containsKey(getKey(size, headHash));
+    }
+
+    /**
+     * @return cached output file of the input file, its path is relative to the output directory with / as
+     *         separator, null if not cached
+     */
+    synchronized CachedOutput get(long size, byte[] hash) {
+        CacheEntry entry = outputs.get(getKey(size, hash));
+        return (entry == null ? null : entry.cachedOutput);
+    }
+
+    /**
+     * Caches the output file of the input file, the least recently used entry is removed if the cache is full.
+     *
+     * @param headHash SHA-256 of the first 64kb of the input file
+     */
+    synchronized void put(long size, byte[] headHash, byte[] hash, CachedOutput cachedOutput) {
+        put(getKey(size, hash), new CacheEntry(getKey(size, headHash), cachedOutput));
+    }
+
+    synchronized void remove(long size, byte[] hash) {
+        String key = getKey(size, hash);
+        CacheEntry entry = outputs.remove(key);
+        if (entry != null) {
+            removeIndexes(key, entry);
+        }
+    }
+
+    /**
+     * Counts an output produced from the cache.
+     */
+    synchronized void hit() {
+        hits++;
+    }
+
+    /**
+     * @return number of outputs produced from the cache in this run
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Replaces the target file with a copy of the source file, nothing is done if the target file is already the
+     * source file or a hard link of it.
+     *
+     * @param link if true, the target file is a hard link of the source file where hard links are supported, so that
+     *        both share their content, e.g. an in-place run over one of them changes both
+     */
+    static void copy(File source, File target, boolean link) throws IOException {
+        if (target.exists() && Files.isSameFile(source.toPath(), target.toPath())) {
+            return;
+        }
+        File tempFile = new File(target.getPath() + ViralCryptEngine.TEMP_EXT);
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        Files.deleteIfExists(tempFile.toPath());
+        boolean linked = false;
+        if (link) {
+            try {
+                Files.createLink(tempFile.toPath(), source.toPath());
+                linked = true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // hard links are not supported by the file system, the source file is copied
+            }
+        }
+        if (!linked) {
+            try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                    FileChannel targetChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = sourceChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += sourceChannel.transferTo(position, size - position, targetChannel);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(tempFile.toPath());
+                throw e;
+            }
+        }
+        ViralAtomicFile.replace(tempFile, target);
+    }
+
+    /**
+     * Saves the cache, least recently used entries first, must not be called while entries are being added.
+     */
+    synchronized void save() throws IOException {
+        ViralAtomicFile.write(file, new ViralAtomicFile.Content() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                DataOutputStream dos = new DataOutputStream(out);
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeLong(fingerprint);
+                dos.writeInt(outputs.size());
+                for (Map.Entry<String, CacheEntry> entry : outputs.entrySet()) {
+                    dos.writeUTF(entry.getKey());
+                    dos.writeUTF(entry.getValue().headKey);
+                    dos.writeLong(entry.getValue().cachedOutput.getLastModified());
+                    dos.writeUTF(entry.getValue().cachedOutput.getOutputPath());
+                }
+                dos.flush();
+            }
+
+        });
+    }
+
+}
@@ -0,0 +1,909 @@
+package com.virallalakia.crypt.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Engine to encrypt/decrypt files with a salt, an engine has no mutable state other than its pool of direct buffers
+ * and can be shared by any number of threads. The result of every file is returned to the caller, nothing is
+ * logged by the engine.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptEngine implements Closeable, ViralCryptMode {
+
+    public static final int DEFAULT_BUFFER_SIZE = ViralCryptKernel.BLOCK_SIZE; // 64kb
+
+    static final long LARGE_FILE_SIZE = 64L * 1024 * 1024; // 64mb
+    static final int REGION_SIZE = 16 * 1024 * 1024; // 16mb
+    static final int IN_PLACE_CHUNK_SIZE = 16 * 1024 * 1024; // 16mb
+    static final long MAX_POOL_SIZE = 256L * 1024 * 1024; // 256mb
+    static final String TEMP_EXT = ".vfct";
+
+    private final ViralCryptKernel kernel;
+    private final int bufferSize;
+    private final int asyncBuffers;
+    private final int inPlaceChunkSize;
+    private final long largeFileSize;
+    private final int regionSize;
+    private final BlockingQueue<ByteBuffer> bufferPool;
+    private final Semaphore bufferPermits;
+    private final ExecutorService regionExecutor;
+    private final Semaphore threadPermits;
+    private final ViralCryptMetrics metrics = new ViralCryptMetrics();
+
+    /**
+     * Encrypts/decrypts files one buffer at a time.
+     *
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptEngine(String salt) {
+        this(salt, DEFAULT_BUFFER_SIZE, 1);
+    }
+
+    /**
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @param bufferSize size of the direct buffers used to read/write the files
+     * @param regionThreads if more than 1, files of at least 64mb are split into regions of 16mb which are
+     *        encrypted/decrypted in parallel by these many threads, the engine must be closed to stop the threads,
+     *        files and regions are then encrypted/decrypted by at most these many threads at a time in total
+     * @throws IllegalArgumentException if salt or buffer size is not valid
+     */
+    public ViralCryptEngine(String salt, int bufferSize, int regionThreads) {
+        this(salt, bufferSize, regionThreads, 0);
+    }
+
+    /**
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @param bufferSize size of the direct buffers used to read/write the files
+     * @param regionThreads if more than 1, files of at least 64mb are split into regions of 16mb which are
+     *        encrypted/decrypted in parallel by these many threads, the engine must be closed to stop the threads
+     * @param asyncBuffers if not 0, files are read/written with asynchronous channels and these many rotating
+     *        buffers per file (at least 2), so that reading the next buffers and writing the previous buffer overlap
+     *        with encrypting/decrypting the current buffer
+     * @throws IllegalArgumentException if salt, buffer size or number of asynchronous buffers is not valid
+     */
+    public ViralCryptEngine(String salt, int bufferSize, int regionThreads, int asyncBuffers) {
+        this(salt, bufferSize, regionThreads, asyncBuffers, IN_PLACE_CHUNK_SIZE);
+    }
+
+    /**
+     * @param inPlaceChunkSize size of the chunks of files processed in place, e.g. smaller chunks for tests
+     */
+    ViralCryptEngine(String salt, int bufferSize, int regionThreads, int asyncBuffers, int inPlaceChunkSize) {
+        this(salt, bufferSize, regionThreads, asyncBuffers, inPlaceChunkSize, LARGE_FILE_SIZE, REGION_SIZE);
+    }
+
+    /**
+     * @param largeFileSize size from which files are split into regions, e.g. smaller files for tests
+     * @param regionSize size of the regions of large files
+     */
+    ViralCryptEngine(String salt, int bufferSize, int regionThreads, int asyncBuffers, int inPlaceChunkSize,
+            long largeFileSize, int regionSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be a positive number");
+        }
+        if (asyncBuffers != 0 && asyncBuffers < 2) {
+            throw new IllegalArgumentException("number of asynchronous buffers must be 0 or at least 2");
+        }
+        this.kernel = ViralCryptKernel.forSalt(salt);
+        this.bufferSize = bufferSize;
+        this.asyncBuffers = asyncBuffers;
+        this.inPlaceChunkSize = inPlaceChunkSize;
+        this.largeFileSize = largeFileSize;
+        this.regionSize = regionSize;
+        // buffers in use are at most 256mb in total, but a file read/written asynchronously gets all its buffers
+        int fileBuffers = Math.max(2, asyncBuffers);
+        int maxBuffers = (int) Math.max(fileBuffers, Math.min(MAX_POOL_SIZE / bufferSize,
+                (long) fileBuffers * Math.max(regionThreads, Runtime.getRuntime().availableProcessors())));
+        this.bufferPool = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+        this.bufferPermits = new Semaphore(maxBuffers, true);
+        this.regionExecutor = (regionThreads > 1 ? Executors.newFixedThreadPool(regionThreads) : null);
+        // threads processing files and region threads share one budget, a thread waiting for the regions of its
+        // file does not take any
+        this.threadPermits = (regionThreads > 1 ? new Semaphore(regionThreads, true) : null);
+    }
+
+    ViralCryptKernel getKernel() {
+        return kernel;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return metrics of all the files processed by this engine
+     */
+    public ViralCryptMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of rotating buffers per file for asynchronous read/write, 0 if files are read/written
+     *         synchronously
+     */
+    public int getAsyncBuffers() {
+        return asyncBuffers;
+    }
+
+    /**
+     * Encrypts/decrypts one region of a large file.
+     */
+    class RegionTask implements Callable<Void> {
+
+        private FileChannel ipChannel;
+        private FileChannel opChannel;
+        private long start;
+        private long end;
+
+        public RegionTask(FileChannel ipChannel, FileChannel opChannel, long start, long end) {
+            super();
+            this.ipChannel = ipChannel;
+            this.opChannel = opChannel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            acquireThreadPermit();
+            ByteBuffer byteBuf = null;
+            try {
+                byteBuf = acquireBuffer();
+                long position = start;
+                while (position < end) {
+                    byteBuf.clear();
+                    byteBuf.limit((int) Math.min(byteBuf.capacity(), end - position));
+                    long readStart = System.nanoTime();
+                    int bytesRead = ipChannel.read(byteBuf, position);
+                    long xorStart = System.nanoTime();
+                    metrics.addReadNanos(xorStart - readStart);
+                    if (bytesRead == -1) {
+                        break;
+                    }
+                    byteBuf.flip();
+                    kernel.crypt(byteBuf, position);
+                    long writeStart = System.nanoTime();
+                    metrics.addXorNanos(writeStart - xorStart);
+                    while (byteBuf.hasRemaining()) {
+                        position += opChannel.write(byteBuf, position);
+                    }
+                    metrics.addWriteNanos(System.nanoTime() - writeStart);
+                }
+            } finally {
+                releaseBuffer(byteBuf);
+                releaseThreadPermit();
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * Waits till the thread may encrypt/decrypt within the budget of threads shared with the regions.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    private void acquireThreadPermit() throws InterruptedIOException {
+        if (threadPermits == null) {
+            return;
+        }
+        try {
+            threadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a thread");
+        }
+    }
+
+    private void releaseThreadPermit() {
+        if (threadPermits != null) {
+            threadPermits.release();
+        }
+    }
+
+    /**
+     * @return a direct buffer of buffer size from the pool, or a new one if the pool is empty, waits if the maximum
+     *         number of buffers is in use, the buffer must be released with releaseBuffer
+     * @throws InterruptedIOException if interrupted while waiting for a buffer
+     */
+    ByteBuffer acquireBuffer() throws InterruptedIOException {
+        return acquireBuffers(1)[0];
+    }
+
+    /**
+     * Acquires all the buffers at once, so that callers which need many buffers do not hold some of them while
+     * waiting for the others.
+     *
+     * @return direct buffers of buffer size, same as acquireBuffer
+     * @throws InterruptedIOException if interrupted while waiting for the buffers
+     */
+    ByteBuffer[] acquireBuffers(int count) throws InterruptedIOException {
+        try {
+            bufferPermits.acquire(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a buffer");
+        }
+        ByteBuffer[] byteBufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            byteBufs[i] = bufferPool.poll();
+            if (byteBufs[i] == null) {
+                byteBufs[i] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+            }
+            byteBufs[i].clear();
+        }
+        return byteBufs;
+    }
+
+    /**
+     * Returns the buffer to the pool.
+     */
+    void releaseBuffer(ByteBuffer byteBuf) {
+        if (byteBuf != null) {
+            bufferPool.offer(byteBuf);
+            bufferPermits.release();
+        }
+    }
+
+    /**
+     * Drops the buffer instead of returning it to the pool, e.g. a buffer of an asynchronous read/write which may
+     * still be in progress, a new buffer may be allocated in its place.
+     */
+    private void discardBuffer(ByteBuffer byteBuf) {
+        if (byteBuf != null) {
+            bufferPermits.release();
+        }
+    }
+
+    /**
+     * Encrypts/decrypts the input file to the output file, an existing output file is replaced.
+     */
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath) {
+        return cryptFile(ipFilePath, opFilePath, null);
+    }
+
+    /**
+     * Encrypts/decrypts the input file to the output file, an existing output file is replaced. The output is
+     * written to a temporary file <output-file>.vfct next to the output file which is forced to the storage device
+     * and renamed to the output file only once it is complete, so that the output file is never left half-written,
+     * even by a power loss.
+     *
+     * @param ipDigest if not null, updated with the content of the input file in the same pass, large files are not
+     *        split into regions in that case
+     */
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        return cryptFile(ipFilePath, opFilePath, ipDigest, null);
+    }
+
+    /**
+     * Encrypts/decrypts the input file to the output file, an existing output file is replaced, same as
+     * cryptFile(ipFilePath, opFilePath, ipDigest).
+     *
+     * @param ipDigest if not null, updated with the content of the input file in the same pass
+     * @param opDigest if not null, updated with the content of the output file in the same pass, from the buffers
+     *        before they are written, large files are not split into regions if any digest is provided
+     */
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest,
+            MessageDigest opDigest) {
+        File ipFile = new File(ipFilePath);
+        File opFile = new File(opFilePath);
+        if (!ipFile.exists() || !ipFile.isFile()) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath, "input file does not exists: " + ipFilePath);
+        }
+        File tempFile = new File(opFilePath + TEMP_EXT);
+        ViralCryptResult result = cryptFileTo(ipFile, tempFile, ipDigest, opDigest);
+        if (!result.isSuccess()) {
+            tempFile.delete();
+            return ViralCryptResult.failure(ipFilePath, opFilePath, result.getError());
+        }
+        try {
+            ViralAtomicFile.replace(tempFile, opFile);
+        } catch (IOException e) {
+            tempFile.delete();
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "could not replace output file: " + opFilePath + " [" + e.getMessage() + "]");
+        }
+        return ViralCryptResult.success(ipFilePath, opFilePath, result.getBytes());
+    }
+
+    private ViralCryptResult cryptFileTo(File ipFile, File opFile, MessageDigest ipDigest, MessageDigest opDigest) {
+        String ipFilePath = ipFile.getPath();
+        String opFilePath = opFile.getPath();
+        if (opFile.exists()) {
+            try {
+                opFile.delete();
+            } catch (SecurityException e) {
+                return ViralCryptResult.failure(ipFilePath, opFilePath,
+                        "could not delete existing output file: " + opFilePath + " [" + e.getMessage() + "]");
+            }
+        }
+        try {
+            opFile.getAbsoluteFile().getParentFile().mkdirs();
+            if (!opFile.createNewFile()) {
+                return ViralCryptResult.failure(ipFilePath, opFilePath,
+                        "could not create output file: " + opFilePath);
+            }
+        } catch (SecurityException | IOException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "could not create output file: " + opFilePath + " [" + e.getMessage() + "]");
+        }
+        if (regionExecutor != null && ipDigest == null && opDigest == null && ipFile.length() >= largeFileSize) {
+            return cryptFileByRegions(ipFile, opFile);
+        }
+        try {
+            acquireThreadPermit();
+        } catch (InterruptedIOException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "interrupted while processing the file: " + ipFilePath);
+        }
+        try {
+            return (asyncBuffers != 0 ? cryptFileAsync(ipFile, opFile, ipDigest, opDigest)
+                    : cryptFileSync(ipFile, opFile, ipDigest, opDigest));
+        } finally {
+            releaseThreadPermit();
+        }
+    }
+
+    private ViralCryptResult cryptFileSync(File ipFile, File opFile, MessageDigest ipDigest, MessageDigest opDigest) {
+        String ipFilePath = ipFile.getPath();
+        String opFilePath = opFile.getPath();
+        long position = 0;
+        ByteBuffer byteBuf = null;
+        try (FileInputStream ipFis = new FileInputStream(ipFile);
+                FileOutputStream opFis = new FileOutputStream(opFile);
+                FileChannel ipChannel = ipFis.getChannel();
+                FileChannel opChannel = opFis.getChannel()) {
+            byteBuf = acquireBuffer();
+            long readStart = System.nanoTime();
+            while (ipChannel.read(byteBuf) != -1) {
+                long xorStart = System.nanoTime();
+                metrics.addReadNanos(xorStart - readStart);
+                byteBuf.flip();
+                if (ipDigest != null) {
+                    ipDigest.update(byteBuf.duplicate());
+                }
+                kernel.crypt(byteBuf, position);
+                if (opDigest != null) {
+                    opDigest.update(byteBuf.duplicate());
+                }
+                long writeStart = System.nanoTime();
+                metrics.addXorNanos(writeStart - xorStart);
+                position += byteBuf.remaining();
+                while (byteBuf.hasRemaining()) {
+                    opChannel.write(byteBuf);
+                }
+                byteBuf.clear();
+                readStart = System.nanoTime();
+                metrics.addWriteNanos(readStart - writeStart);
+            }
+            long forceStart = System.nanoTime();
+            metrics.addReadNanos(forceStart - readStart);
+            opChannel.force(true);
+            metrics.addWriteNanos(System.nanoTime() - forceStart);
+        } catch (FileNotFoundException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "could not find the file" + " [" + e.getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "error while read/write with file" + " [" + e.getMessage() + "]");
+        } finally {
+            releaseBuffer(byteBuf);
+        }
+        return ViralCryptResult.success(ipFilePath, opFilePath, position);
+    }
+
+    /**
+     * Buffer of the asynchronous pipeline with its pending read and write.
+     */
+    private static class AsyncSlot {
+
+        private ByteBuffer byteBuf;
+        private long position;
+        private Future<Integer> readTask;
+        private Future<Integer> writeTask;
+
+    }
+
+    /**
+     * Encrypts/decrypts the file with rotating buffers, buffer k + n - 1 is being read and buffer k - 1 is being
+     * written while buffer k is encrypted/decrypted.
+     */
+    private ViralCryptResult cryptFileAsync(File ipFile, File opFile, MessageDigest ipDigest,
+            MessageDigest opDigest) {
+        AsyncSlot[] slots = new AsyncSlot[asyncBuffers];
+        long position = 0;
+        try (AsynchronousFileChannel ipChannel = AsynchronousFileChannel.open(ipFile.toPath(),
+                StandardOpenOption.READ);
+                AsynchronousFileChannel opChannel = AsynchronousFileChannel.open(opFile.toPath(),
+                        StandardOpenOption.WRITE)) {
+            ByteBuffer[] byteBufs = acquireBuffers(slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new AsyncSlot();
+                slots[i].byteBuf = byteBufs[i];
+            }
+            for (int i = 0; i < slots.length; i++) {
+                startRead(ipChannel, slots[i], (long) i * bufferSize);
+            }
+            for (long k = 0;; k++) {
+                AsyncSlot slot = slots[(int) (k % slots.length)];
+                long readStart = System.nanoTime();
+                int bytesRead = completeRead(ipChannel, slot);
+                long xorStart = System.nanoTime();
+                metrics.addReadNanos(xorStart - readStart);
+                if (bytesRead == 0) {
+                    break;
+                }
+                slot.byteBuf.flip();
+                if (ipDigest != null) {
+                    ipDigest.update(slot.byteBuf.duplicate());
+                }
+                kernel.crypt(slot.byteBuf, slot.position);
+                if (opDigest != null) {
+                    opDigest.update(slot.byteBuf.duplicate());
+                }
+                long writeStart = System.nanoTime();
+                metrics.addXorNanos(writeStart - xorStart);
+                position += slot.byteBuf.remaining();
+                slot.writeTask = opChannel.write(slot.byteBuf, slot.position);
+                if (k > 0) {
+                    AsyncSlot previousSlot = slots[(int) ((k - 1) % slots.length)];
+                    completeWrite(opChannel, previousSlot);
+                    metrics.addWriteNanos(System.nanoTime() - writeStart);
+                    startRead(ipChannel, previousSlot, (k + slots.length - 1) * bufferSize);
+                }
+            }
+            long writeStart = System.nanoTime();
+            for (AsyncSlot slot : slots) {
+                completeWrite(opChannel, slot);
+                metrics.addWriteNanos(System.nanoTime() - writeStart);
+                writeStart = System.nanoTime();
+                if (slot.readTask != null) {
+                    slot.readTask.get(); // read after the end of the file
+                    slot.readTask = null;
+                }
+            }
+            opChannel.force(true);
+            metrics.addWriteNanos(System.nanoTime() - writeStart);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                    "interrupted while processing the file: " + ipFile.getPath());
+        } catch (ExecutionException e) {
+            return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                    "error while read/write with file" + " [" + e.getCause().getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                    "error while read/write with file" + " [" + e.getMessage() + "]");
+        } finally {
+            // buffers of reads/writes which may still be in progress after a failure are not reused
+            for (AsyncSlot slot : slots) {
+                if (slot == null) {
+                    continue;
+                }
+                if ((slot.readTask == null || slot.readTask.isDone())
+                        && (slot.writeTask == null || slot.writeTask.isDone())) {
+                    releaseBuffer(slot.byteBuf);
+                } else {
+                    discardBuffer(slot.byteBuf);
+                }
+            }
+        }
+        return ViralCryptResult.success(ipFile.getPath(), opFile.getPath(), position);
+    }
+
+    private static void startRead(AsynchronousFileChannel ipChannel, AsyncSlot slot, long position) {
+        slot.byteBuf.clear();
+        slot.position = position;
+        slot.readTask = ipChannel.read(slot.byteBuf, position);
+    }
+
+    /**
+     * Waits for the read of the slot and reads till the buffer is full or the end of the file is reached.
+     *
+     * @return number of bytes in the buffer
+     */
+    private static int completeRead(AsynchronousFileChannel ipChannel, AsyncSlot slot)
+            throws InterruptedException, ExecutionException {
+        int bytesRead = slot.readTask.get();
+        slot.readTask = null;
+        if (bytesRead == -1) {
+            return 0;
+        }
+        while (slot.byteBuf.hasRemaining()) {
+            int count = ipChannel.read(slot.byteBuf, slot.position + slot.byteBuf.position()).get();
+            if (count == -1) {
+                break;
+            }
+        }
+        return slot.byteBuf.position();
+    }
+
+    /**
+     * Waits for the write of the slot and writes the rest of the buffer if the write was partial.
+     */
+    private static void completeWrite(AsynchronousFileChannel opChannel, AsyncSlot slot)
+            throws InterruptedException, ExecutionException {
+        if (slot.writeTask == null) {
+            return;
+        }
+        slot.writeTask.get();
+        slot.writeTask = null;
+        while (slot.byteBuf.hasRemaining()) {
+            opChannel.write(slot.byteBuf, slot.position + slot.byteBuf.position()).get();
+        }
+    }
+
+    private ViralCryptResult cryptFileByRegions(File ipFile, File opFile) {
+        long size;
+        try (RandomAccessFile ipRaf = new RandomAccessFile(ipFile, "r");
+                RandomAccessFile opRaf = new RandomAccessFile(opFile, "rw");
+                FileChannel ipChannel = ipRaf.getChannel();
+                FileChannel opChannel = opRaf.getChannel()) {
+            size = ipChannel.size();
+            opRaf.setLength(size);
+            List<Future<Void>> regionTasks = new ArrayList<Future<Void>>();
+            for (long start = 0; start < size; start += regionSize) {
+                regionTasks.add(regionExecutor
+                        .submit(new RegionTask(ipChannel, opChannel, start, Math.min(start + regionSize, size))));
+            }
+            try {
+                for (Future<Void> regionTask : regionTasks) {
+                    regionTask.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                        "interrupted while processing the file: " + ipFile.getPath());
+            } catch (ExecutionException e) {
+                return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                        "error while read/write with file" + " [" + e.getCause().getMessage() + "]");
+            } finally {
+                for (Future<Void> regionTask : regionTasks) {
+                    regionTask.cancel(true);
+                }
+            }
+            long forceStart = System.nanoTime();
+            opChannel.force(true);
+            metrics.addWriteNanos(System.nanoTime() - forceStart);
+        } catch (FileNotFoundException e) {
+            return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                    "could not find the file" + " [" + e.getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFile.getPath(), opFile.getPath(),
+                    "error while read/write with file" + " [" + e.getMessage() + "]");
+        }
+        return ViralCryptResult.success(ipFile.getPath(), opFile.getPath(), size);
+    }
+
+    /**
+     * Encrypts/decrypts the file in place chunk by chunk, the checksums of the blocks of every chunk are journaled
+     * before the chunk is overwritten. If a journal of an interrupted run exists, its chunk in flight is restored
+     * first and the run is resumed in the direction of the journal, or rolled back if rollback is requested. Once the
+     * file is processed, the journal is cut down to a completion record and kept, so that the file is not processed
+     * twice, it can be deleted with deleteInPlaceJournal once the completion of the file is recorded elsewhere (e.g.
+     * in the checkpoint of a multi-file run).
+     *
+     * @param rollback if true, the file is restored using its journal, a file without journal is not changed
+     */
+    public ViralCryptResult cryptFileInPlace(String ipFilePath, boolean rollback) {
+        File ipFile = new File(ipFilePath);
+        if (!ipFile.exists() || !ipFile.isFile()) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath, "input file does not exists: " + ipFilePath);
+        }
+        boolean journalExists = ViralInPlaceJournal.getJournalFile(ipFile).exists();
+        if (rollback && !journalExists) {
+            return ViralCryptResult.success(ipFilePath, ipFilePath, 0);
+        }
+        long bytes = 0;
+        try (RandomAccessFile ipRaf = new RandomAccessFile(ipFile, "rw"); FileChannel ipChannel = ipRaf.getChannel()) {
+            long size = ipChannel.size();
+            ViralInPlaceJournal journal = (journalExists
+                    ? ViralInPlaceJournal.open(ipFile, kernel.fingerprint(), size)
+                    : ViralInPlaceJournal.create(ipFile, kernel.fingerprint(), size,
+                            (int) Math.min(inPlaceChunkSize, Math.max(size, 1))));
+            int chunkSize = journal.getChunkSize();
+            ByteBuffer byteBuf = null;
+            try {
+                byteBuf = acquireBuffer();
+                ViralInPlaceJournal.Record record = (journalExists ? journal.recover() : null);
+                byte state = ViralInPlaceJournal.STATE_FORWARD;
+                long boundary = 0;
+                if (record != null) {
+                    state = record.getState();
+                    boundary = record.getPosition();
+                    if (state != ViralInPlaceJournal.STATE_COMPLETE) {
+                        journal.restore(record, ipChannel, kernel);
+                        if (state == ViralInPlaceJournal.STATE_BACKWARD) {
+                            boundary += record.getLength();
+                        }
+                    }
+                }
+                if (rollback) {
+                    state = ViralInPlaceJournal.STATE_BACKWARD;
+                }
+                if (state == ViralInPlaceJournal.STATE_FORWARD) {
+                    for (long position = boundary; position < size; position += chunkSize) {
+                        cryptChunkInPlace(ipChannel, journal, state, byteBuf, position,
+                                Math.min(position + chunkSize, size));
+                    }
+                    journal.complete(size);
+                    bytes = size - boundary;
+                } else if (state == ViralInPlaceJournal.STATE_BACKWARD) {
+                    for (long end = boundary; end > 0;) {
+                        long position = ((end - 1) / chunkSize) * chunkSize;
+                        cryptChunkInPlace(ipChannel, journal, state, byteBuf, position, end);
+                        end = position;
+                    }
+                    journal.delete();
+                    bytes = boundary;
+                }
+            } finally {
+                journal.close();
+                releaseBuffer(byteBuf);
+            }
+        } catch (FileNotFoundException e) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath,
+                    "could not find the file" + " [" + e.getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFilePath, ipFilePath,
+                    "error while read/write with file" + " [" + e.getMessage() + "]");
+        }
+        return ViralCryptResult.success(ipFilePath, ipFilePath, bytes);
+    }
+
+    /**
+     * Encrypts/decrypts the chunk [position, end) in place with one pooled buffer: the chunk is read once to journal
+     * the checksums of its blocks, and read again (mostly from the page cache) to be transformed and written. The
+     * chunk is forced to the storage device before returning, as the next record replaces the previous one.
+     */
+    private void cryptChunkInPlace(FileChannel ipChannel, ViralInPlaceJournal journal, byte state,
+            ByteBuffer byteBuf, long position, long end) throws IOException {
+        long readStart = System.nanoTime();
+        journal.beginChunk();
+        for (long chunkPosition = position; chunkPosition < end; chunkPosition += byteBuf.remaining()) {
+            readChunkBuffer(ipChannel, byteBuf, chunkPosition, end);
+            journal.update(byteBuf);
+        }
+        long journalStart = System.nanoTime();
+        metrics.addReadNanos(journalStart - readStart);
+        journal.record(state, position);
+        metrics.addWriteNanos(System.nanoTime() - journalStart);
+        for (long chunkPosition = position; chunkPosition < end;) {
+            readStart = System.nanoTime();
+            readChunkBuffer(ipChannel, byteBuf, chunkPosition, end);
+            long xorStart = System.nanoTime();
+            metrics.addReadNanos(xorStart - readStart);
+            kernel.crypt(byteBuf, chunkPosition);
+            long writeStart = System.nanoTime();
+            metrics.addXorNanos(writeStart - xorStart);
+            int count = byteBuf.remaining();
+            ViralInPlaceJournal.writeFully(ipChannel, byteBuf, chunkPosition);
+            chunkPosition += count;
+            metrics.addWriteNanos(System.nanoTime() - writeStart);
+        }
+        long forceStart = System.nanoTime();
+        ipChannel.force(false);
+        metrics.addWriteNanos(System.nanoTime() - forceStart);
+    }
+
+    /**
+     * Reads the buffer from the position, up to its capacity but not beyond the end, and flips it.
+     */
+    private static void readChunkBuffer(FileChannel ipChannel, ByteBuffer byteBuf, long position, long end)
+            throws IOException {
+        byteBuf.clear();
+        byteBuf.limit((int) Math.min(byteBuf.capacity(), end - position));
+        if (ViralInPlaceJournal.readFully(ipChannel, byteBuf, position) < byteBuf.limit()) {
+            throw new IOException("file was truncated while being processed at position " + position);
+        }
+        byteBuf.flip();
+    }
+
+    /**
+     * Journals a completion record for a file processed in place whose journal was deleted, so that it can be rolled
+     * back with cryptFileInPlace like the files of an interrupted run. A file with a journal is left as it is.
+     */
+    public void journalCompletedInPlace(String ipFilePath) throws IOException {
+        File ipFile = new File(ipFilePath);
+        if (!ipFile.isFile() || ViralInPlaceJournal.getJournalFile(ipFile).exists()) {
+            return;
+        }
+        long size = ipFile.length();
+        ViralInPlaceJournal journal = ViralInPlaceJournal.create(ipFile, kernel.fingerprint(), size,
+                (int) Math.min(inPlaceChunkSize, Math.max(size, 1)));
+        try {
+            journal.complete(size);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Deletes the journal of a file processed in place, if any.
+     *
+     * @return false if the journal exists and could not be deleted
+     */
+    public boolean deleteInPlaceJournal(String ipFilePath) {
+        File journalFile = ViralInPlaceJournal.getJournalFile(new File(ipFilePath));
+        return !journalFile.exists() || journalFile.delete();
+    }
+
+    /**
+     * Encrypts/decrypts all the bytes of the input channel to the output channel, the channels are not closed.
+     *
+     * @return number of bytes encrypted/decrypted
+     */
+    public long crypt(ReadableByteChannel ipChannel, WritableByteChannel opChannel) throws IOException {
+        long position = 0;
+        ByteBuffer byteBuf = acquireBuffer();
+        try {
+            long readStart = System.nanoTime();
+            while (ipChannel.read(byteBuf) != -1) {
+                long xorStart = System.nanoTime();
+                metrics.addReadNanos(xorStart - readStart);
+                byteBuf.flip();
+                kernel.crypt(byteBuf, position);
+                long writeStart = System.nanoTime();
+                metrics.addXorNanos(writeStart - xorStart);
+                position += byteBuf.remaining();
+                while (byteBuf.hasRemaining()) {
+                    opChannel.write(byteBuf);
+                }
+                byteBuf.clear();
+                readStart = System.nanoTime();
+                metrics.addWriteNanos(readStart - writeStart);
+            }
+            metrics.addReadNanos(System.nanoTime() - readStart);
+        } finally {
+            releaseBuffer(byteBuf);
+        }
+        return position;
+    }
+
+    /**
+     * Encrypts/decrypts a range of the input channel to the output channel, only the bytes of the range are read and
+     * they are transformed exactly the same as if the whole input was encrypted/decrypted, the channels are not
+     * closed.
+     *
+     * @param start position of the first byte of the range in the input
+     * @param length number of bytes of the range, the range ends earlier if the input ends earlier
+     * @return number of bytes encrypted/decrypted
+     */
+    public long cryptRange(SeekableByteChannel ipChannel, long start, long length, WritableByteChannel opChannel)
+            throws IOException {
+        ViralCryptSeekableByteChannel rangeChannel = new ViralCryptSeekableByteChannel(ipChannel, kernel);
+        rangeChannel.position(start);
+        long bytes = 0;
+        ByteBuffer byteBuf = acquireBuffer();
+        try {
+            while (bytes < length) {
+                byteBuf.clear();
+                byteBuf.limit((int) Math.min(byteBuf.capacity(), length - bytes));
+                long readStart = System.nanoTime();
+                int bytesRead = rangeChannel.read(byteBuf); // includes XOR
+                long writeStart = System.nanoTime();
+                metrics.addReadNanos(writeStart - readStart);
+                if (bytesRead == -1) {
+                    break;
+                }
+                byteBuf.flip();
+                while (byteBuf.hasRemaining()) {
+                    opChannel.write(byteBuf);
+                }
+                metrics.addWriteNanos(System.nanoTime() - writeStart);
+                bytes += bytesRead;
+            }
+        } finally {
+            releaseBuffer(byteBuf);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the file once, updates the digest with its content and the crypted digest with its
+     * encrypted/decrypted content, nothing is written.
+     *
+     * @return number of bytes read
+     */
+    public long digestFile(String filePath, MessageDigest digest, MessageDigest cryptedDigest) throws IOException {
+        long position = 0;
+        ByteBuffer byteBuf = acquireBuffer();
+        try (FileInputStream fis = new FileInputStream(filePath); FileChannel channel = fis.getChannel()) {
+            long readStart = System.nanoTime();
+            while (channel.read(byteBuf) != -1) {
+                long xorStart = System.nanoTime();
+                metrics.addReadNanos(xorStart - readStart);
+                byteBuf.flip();
+                digest.update(byteBuf.duplicate());
+                kernel.crypt(byteBuf, position);
+                cryptedDigest.update(byteBuf.duplicate());
+                position += byteBuf.remaining();
+                byteBuf.clear();
+                readStart = System.nanoTime();
+                metrics.addXorNanos(readStart - xorStart);
+            }
+            metrics.addReadNanos(System.nanoTime() - readStart);
+        } finally {
+            releaseBuffer(byteBuf);
+        }
+        return position;
+    }
+
+    /**
+     * Updates the digest with the content of the file.
+     *
+     * @return number of bytes read
+     */
+    public long digestFile(String filePath, MessageDigest digest) throws IOException {
+        return digestFile(filePath, digest, Long.MAX_VALUE);
+    }
+
+    /**
+     * Updates the digest with the first bytes of the file, only these bytes are read.
+     *
+     * @param length number of bytes to be read, fewer if the file is shorter
+     * @return number of bytes read
+     */
+    public long digestFile(String filePath, MessageDigest digest, long length) throws IOException {
+        long bytes = 0;
+        ByteBuffer byteBuf = acquireBuffer();
+        try (FileInputStream fis = new FileInputStream(filePath); FileChannel channel = fis.getChannel()) {
+            while (bytes < length) {
+                byteBuf.limit((int) Math.min(byteBuf.capacity(), length - bytes));
+                if (channel.read(byteBuf) == -1) {
+                    break;
+                }
+                byteBuf.flip();
+                bytes += byteBuf.remaining();
+                digest.update(byteBuf);
+                byteBuf.clear();
+            }
+        } finally {
+            releaseBuffer(byteBuf);
+        }
+        return bytes;
+    }
+
+    /**
+     * Stops the threads used for large files, files being processed are not interrupted.
+     */
+    @Override
+    public void close() {
+        if (regionExecutor != null) {
+            regionExecutor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.virallalakia.crypt.file;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream which encrypts/decrypts the bytes read from the underlying input stream with the salt, the bytes
+ * are transformed exactly the same as ViralFileCrypt transforms a file with the same content.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptInputStream extends FilterInputStream {
+
+    private final ViralCryptKernel kernel;
+    private long position;
+    private long markPosition;
+
+    /**
+     * @param in underlying input stream
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptInputStream(InputStream in, String salt) {
+        this(in, ViralCryptKernel.forSalt(salt), 0);
+    }
+
+    ViralCryptInputStream(InputStream in, ViralCryptKernel kernel, long position) {
+        super(in);
+        this.kernel = kernel;
+        this.position = position;
+        this.markPosition = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            return -1;
+        }
+        return kernel.crypt((byte) b, position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytesRead = in.read(b, off, len);
+        if (bytesRead > 0) {
+            kernel.crypt(ByteBuffer.wrap(b, off, bytesRead), position);
+            position += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        in.mark(readlimit);
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        in.reset();
+        position = markPosition;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.virallalakia.crypt.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * XOR kernel of ViralFileCrypt, the salt is expanded once into a pattern of BLOCK_SIZE bytes which is applied
+ * 8 bytes at a time on the buffers, the pattern restarts at every BLOCK_SIZE bytes of the file.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptKernel {
+
+    static final int BLOCK_SIZE = 64 * 1024; // 64kb
+
+    private final ByteBuffer bigEndianPattern;
+    private final ByteBuffer littleEndianPattern;
+
+    ViralCryptKernel(byte[] saltBytes) {
+        int[] salt = new int[saltBytes.length / 4];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (((int) saltBytes[4 * i]) << 24) + (((int) saltBytes[4 * i + 1]) << 16)
+                    + (((int) saltBytes[4 * i + 2]) << 8) + (((int) saltBytes[4 * i + 3]));
+        }
+        ByteBuffer pattern = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < BLOCK_SIZE / 4; i++) {
+            pattern.putInt(salt[i % salt.length]);
+        }
+        pattern.clear();
+        this.bigEndianPattern = pattern.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+        this.littleEndianPattern = pattern.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    static ViralCryptKernel forSalt(String salt) {
+        if (salt == null || salt.length() < 4 || salt.length() % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "salt must be any string with the length of multiple of 4 (at least 4 characters)");
+        }
+        return new ViralCryptKernel(salt.getBytes());
+    }
+
+    /**
+     * @return checksum of the expanded salt, to recognize the salt without keeping it
+     */
+    long fingerprint() {
+        CRC32 crc = new CRC32();
+        crc.update(bigEndianPattern.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * Encrypts/decrypts the remaining bytes of the buffer in place, position and limit of the buffer are not
+     * changed.
+     *
+     * @param byteBuf buffer to be encrypted/decrypted
+     * @param filePosition position in the file of the first remaining byte of the buffer
+     */
+    void crypt(ByteBuffer byteBuf, long filePosition) {
+        ByteBuffer pattern = (byteBuf.order() == ByteOrder.BIG_ENDIAN ? bigEndianPattern : littleEndianPattern);
+        int index = byteBuf.position();
+        int limit = byteBuf.limit();
+        int patternIndex = (int) (filePosition % BLOCK_SIZE);
+        while (index < limit) {
+            int end = Math.min(limit, index + BLOCK_SIZE - patternIndex);
+            int longEnd = end - ((end - index) & 7);
+            for (; index < longEnd; index += 8, patternIndex += 8) {
+                byteBuf.putLong(index, byteBuf.getLong(index) ^ pattern.getLong(patternIndex));
+            }
+            for (; index < end; index++, patternIndex++) {
+                byteBuf.put(index, (byte) (byteBuf.get(index) ^ pattern.get(patternIndex)));
+            }
+            patternIndex = 0;
+        }
+    }
+
+    /**
+     * Encrypts/decrypts a single byte.
+     *
+     * @param b byte to be encrypted/decrypted
+     * @param filePosition position of the byte in the file
+     */
+    byte crypt(byte b, long filePosition) {
+        return (byte) (b ^ bigEndianPattern.get((int) (filePosition % BLOCK_SIZE)));
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manifest of an incremental run, kept in the output directory, it maps every input file (relative to the input
+ * directory) to its size, last modified time, optional content hash and output file (relative to the output
+ * directory) as of the last time it was encrypted/decrypted. The manifest is a binary file read and written with
+ * large buffers, so that millions of entries can be loaded quickly, and it is replaced atomically when saved.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptManifest {
+
+    static final String MANIFEST_FILE = ".vfc-manifest";
+
+    private static final int MAGIC = 0x5646434D; // VFCM
+    private static final int VERSION = 1;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    static class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+        private final String outputPath;
+
+        public Entry(long size, long lastModified, byte[] hash, String outputPath) {
+            super();
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = (hash == null ? new byte[0] : hash);
+            this.outputPath = outputPath;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return content hash of the input file, empty if not computed
+         */
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+    }
+
+    private final File file;
+    private final long fingerprint;
+    private final String input;
+    private final Map<String, Entry> entries;
+    private final Set<String> visitedPaths;
+
+    private ViralCryptManifest(File file, long fingerprint, String input, Map<String, Entry> entries) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.input = input;
+        this.entries = entries;
+        this.visitedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Loads the manifest of the output directory, the manifest is empty if it does not exist or if it was saved for
+     * another salt or another input.
+     */
+    static ViralCryptManifest load(File outputDir, long fingerprint, String input) throws IOException {
+        File file = new File(outputDir, MANIFEST_FILE);
+        Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+        if (file.isFile()) {
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE))) {
+                if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                    throw new IOException("invalid manifest: " + file.getPath());
+                }
+                if (dis.readLong() == fingerprint && input.equals(dis.readUTF())) {
+                    int count = dis.readInt();
+                    entries = new ConcurrentHashMap<String, Entry>(Math.max(16, (int) (count / 0.75f) + 1));
+                    for (int i = 0; i < count; i++) {
+                        String inputPath = dis.readUTF();
+                        long size = dis.readLong();
+                        long lastModified = dis.readLong();
+                        byte[] hash = new byte[dis.readUnsignedByte()];
+                        dis.readFully(hash);
+                        entries.put(inputPath, new Entry(size, lastModified, hash, dis.readUTF()));
+                    }
+                }
+            } catch (EOFException e) {
+                throw new IOException("incomplete manifest: " + file.getPath(), e);
+            }
+        }
+        return new ViralCryptManifest(file, fingerprint, input, entries);
+    }
+
+    /**
+     * @return entry of the input file and marks the input file as visited in this run
+     */
+    Entry visit(String inputPath) {
+        visitedPaths.add(inputPath);
+        return entries.get(inputPath);
+    }
+
+    void put(String inputPath, Entry entry) {
+        entries.put(inputPath, entry);
+    }
+
+    void remove(String inputPath) {
+        entries.remove(inputPath);
+    }
+
+    /**
+     * Removes the entries of the input files which were not visited in this run and no longer exist, input files
+     * which were not visited but still exist (e.g. excluded by --include/--exclude) keep their entries.
+     *
+     * @param inputDir directory against which the input paths of the entries are resolved
+     * @return removed entries
+     */
+    Map<String, Entry> removeDeleted(File inputDir) {
+        Map<String, Entry> removedEntries = new ConcurrentHashMap<String, Entry>();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!visitedPaths.contains(entry.getKey()) && !new File(inputDir, entry.getKey()).exists()) {
+                removedEntries.put(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+        return removedEntries;
+    }
+
+    /**
+     * Saves the manifest, must not be called while entries are being added.
+     */
+    void save() throws IOException {
+        ViralAtomicFile.write(file, new ViralAtomicFile.Content() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                DataOutputStream dos = new DataOutputStream(out);
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeLong(fingerprint);
+                dos.writeUTF(input);
+                dos.writeInt(entries.size());
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    dos.writeUTF(entry.getKey());
+                    dos.writeLong(entry.getValue().getSize());
+                    dos.writeLong(entry.getValue().getLastModified());
+                    dos.writeByte(entry.getValue().getHash().length);
+                    dos.write(entry.getValue().getHash());
+                    dos.writeUTF(entry.getValue().getOutputPath());
+                }
+                dos.flush();
+            }
+
+        });
+    }
+
+}
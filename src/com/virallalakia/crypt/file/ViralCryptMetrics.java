@@ -0,0 +1,299 @@
+package com.virallalakia.crypt.file;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a ViralCryptEngine, updated by any number of threads without locking. Times of read, XOR and write are
+ * summed over all the threads, so they can be more than the elapsed time of a parallel run. With asynchronous
+ * read/write, read and write times are the times spent waiting for the reads and writes to complete. Journal
+ * writes of files processed in place are counted as write time.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptMetrics implements ViralCryptMetricsMXBean {
+
+    /** upper bounds (exclusive) of file sizes of the latency histograms */
+    static final long[] SIZE_BUCKETS = { 4L * 1024, 64L * 1024, 1024L * 1024, 16L * 1024 * 1024,
+            256L * 1024 * 1024, 4L * 1024 * 1024 * 1024, Long.MAX_VALUE };
+    /** upper bounds (inclusive) of file latencies in ms of the latency histograms */
+    static final long[] LATENCY_BUCKETS = { 1, 4, 16, 64, 256, 1024, 4096, 16384, 65536, Long.MAX_VALUE };
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder skippedFiles = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder walkNanos = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder xorNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder[] sizeBucketFiles = newAdders(SIZE_BUCKETS.length);
+    private final LongAdder[] sizeBucketBytes = newAdders(SIZE_BUCKETS.length);
+    private final LongAdder[] sizeBucketNanos = newAdders(SIZE_BUCKETS.length);
+    private final LongAccumulator[] sizeBucketMaxNanos = new LongAccumulator[SIZE_BUCKETS.length];
+    private final LongAdder[][] latencyFiles = new LongAdder[SIZE_BUCKETS.length][];
+
+    /**
+     * Snapshot of the metrics of the files of one size bucket, mapped to composite data by JMX.
+     */
+    public static final class SizeBucket {
+
+        private final long maxSize;
+        private final long files;
+        private final long bytes;
+        private final long totalMillis;
+        private final long maxMillis;
+        private final long[] latencyHistogram;
+
+        SizeBucket(long maxSize, long files, long bytes, long totalMillis, long maxMillis, long[] latencyHistogram) {
+            this.maxSize = maxSize;
+            this.files = files;
+            this.bytes = bytes;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        /**
+         * @return largest file size of the bucket, Long.MAX_VALUE for the last bucket
+         */
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        /**
+         * @return number of files per latency bucket, in the order of getLatencyBucketMaxMillis
+         */
+        public long[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+
+    }
+
+    public ViralCryptMetrics() {
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            sizeBucketMaxNanos[i] = new LongAccumulator(Math::max, 0);
+            latencyFiles[i] = newAdders(LATENCY_BUCKETS.length);
+        }
+    }
+
+    private static LongAdder[] newAdders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static int getBucket(long[] buckets, long value, boolean inclusive) {
+        int bucket = 0;
+        while (bucket < buckets.length - 1 && (inclusive ? value > buckets[bucket] : value >= buckets[bucket])) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Records the result of a file.
+     *
+     * @param nanos time taken to process the file
+     */
+    void recordResult(ViralCryptResult result, long nanos) {
+        if (!result.isSuccess()) {
+            files.increment();
+            errors.increment();
+        } else if (result.isSkipped()) {
+            files.increment();
+            skippedFiles.increment();
+        } else {
+            recordFile(result.getBytes(), nanos);
+        }
+    }
+
+    private void recordFile(long fileBytes, long nanos) {
+        files.increment();
+        bytes.add(fileBytes);
+        int sizeBucket = getBucket(SIZE_BUCKETS, fileBytes, false);
+        sizeBucketFiles[sizeBucket].increment();
+        sizeBucketBytes[sizeBucket].add(fileBytes);
+        sizeBucketNanos[sizeBucket].add(nanos);
+        sizeBucketMaxNanos[sizeBucket].accumulate(nanos);
+        latencyFiles[sizeBucket][getBucket(LATENCY_BUCKETS, TimeUnit.NANOSECONDS.toMillis(nanos), true)].increment();
+    }
+
+    void addWalkNanos(long nanos) {
+        walkNanos.add(nanos);
+    }
+
+    void addReadNanos(long nanos) {
+        readNanos.add(nanos);
+    }
+
+    void addXorNanos(long nanos) {
+        xorNanos.add(nanos);
+    }
+
+    void addWriteNanos(long nanos) {
+        writeNanos.add(nanos);
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getSkippedFiles() {
+        return skippedFiles.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return (elapsedNanos <= 0 ? 0 : bytes.sum() * 1e9 / elapsedNanos);
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getWalkMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(walkNanos.sum());
+    }
+
+    @Override
+    public long getReadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readNanos.sum());
+    }
+
+    @Override
+    public long getXorMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(xorNanos.sum());
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(writeNanos.sum());
+    }
+
+    @Override
+    public long[] getLatencyBucketMaxMillis() {
+        return LATENCY_BUCKETS.clone();
+    }
+
+    @Override
+    public SizeBucket[] getSizeBuckets() {
+        SizeBucket[] sizeBuckets = new SizeBucket[SIZE_BUCKETS.length];
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            long[] latencyHistogram = new long[LATENCY_BUCKETS.length];
+            for (int j = 0; j < LATENCY_BUCKETS.length; j++) {
+                latencyHistogram[j] = latencyFiles[i][j].sum();
+            }
+            sizeBuckets[i] = new SizeBucket((SIZE_BUCKETS[i] == Long.MAX_VALUE ? Long.MAX_VALUE : SIZE_BUCKETS[i] - 1),
+                    sizeBucketFiles[i].sum(), sizeBucketBytes[i].sum(),
+                    TimeUnit.NANOSECONDS.toMillis(sizeBucketNanos[i].sum()),
+                    TimeUnit.NANOSECONDS.toMillis(sizeBucketMaxNanos[i].get()), latencyHistogram);
+        }
+        return sizeBuckets;
+    }
+
+    /**
+     * @return metrics as a JSON object, each line after the first one is indented with the indent
+     */
+    public String toJson(String indent) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append(indent).append("  \"files\": ").append(getFiles()).append(",\n");
+        builder.append(indent).append("  \"skippedFiles\": ").append(getSkippedFiles()).append(",\n");
+        builder.append(indent).append("  \"errors\": ").append(getErrors()).append(",\n");
+        builder.append(indent).append("  \"bytes\": ").append(getBytes()).append(",\n");
+        builder.append(indent).append("  \"bytesPerSecond\": ")
+                .append(String.format(Locale.ROOT, "%.0f", getBytesPerSecond())).append(",\n");
+        builder.append(indent).append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+        builder.append(indent).append("  \"walkMillis\": ").append(getWalkMillis()).append(",\n");
+        builder.append(indent).append("  \"readMillis\": ").append(getReadMillis()).append(",\n");
+        builder.append(indent).append("  \"xorMillis\": ").append(getXorMillis()).append(",\n");
+        builder.append(indent).append("  \"writeMillis\": ").append(getWriteMillis()).append(",\n");
+        builder.append(indent).append("  \"sizeBuckets\": [");
+        SizeBucket[] sizeBuckets = getSizeBuckets();
+        for (int i = 0; i < sizeBuckets.length; i++) {
+            SizeBucket sizeBucket = sizeBuckets[i];
+            builder.append(i == 0 ? "\n" : ",\n");
+            builder.append(indent).append("    {\n");
+            builder.append(indent).append("      \"maxSize\": ").append(sizeBucket.maxSize == Long.MAX_VALUE ? "null"
+                    : String.valueOf(sizeBucket.maxSize)).append(",\n");
+            builder.append(indent).append("      \"files\": ").append(sizeBucket.files).append(",\n");
+            builder.append(indent).append("      \"bytes\": ").append(sizeBucket.bytes).append(",\n");
+            builder.append(indent).append("      \"totalMillis\": ").append(sizeBucket.totalMillis).append(",\n");
+            builder.append(indent).append("      \"maxMillis\": ").append(sizeBucket.maxMillis).append(",\n");
+            builder.append(indent).append("      \"latencyHistogram\": [");
+            for (int j = 0; j < LATENCY_BUCKETS.length; j++) {
+                builder.append(j == 0 ? "\n" : ",\n");
+                builder.append(indent).append("        { \"maxMillis\": ")
+                        .append(LATENCY_BUCKETS[j] == Long.MAX_VALUE ? "null" : String.valueOf(LATENCY_BUCKETS[j]))
+                        .append(", \"files\": ").append(sizeBucket.latencyHistogram[j]).append(" }");
+            }
+            builder.append("\n").append(indent).append("      ]\n");
+            builder.append(indent).append("    }");
+        }
+        builder.append("\n").append(indent).append("  ]\n");
+        builder.append(indent).append("}");
+        return builder.toString();
+    }
+
+    /**
+     * @return string as a JSON string literal
+     */
+    static String toJsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+}
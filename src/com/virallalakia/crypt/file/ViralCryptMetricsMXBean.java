@@ -0,0 +1,44 @@
+package com.virallalakia.crypt.file;
+
+/**
+ * Management interface of ViralCryptMetrics, exposed through JMX while a run is in progress.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public interface ViralCryptMetricsMXBean {
+
+    long getFiles();
+
+    long getSkippedFiles();
+
+    long getErrors();
+
+    long getBytes();
+
+    double getBytesPerSecond();
+
+    long getElapsedMillis();
+
+    long getWalkMillis();
+
+    long getReadMillis();
+
+    long getXorMillis();
+
+    long getWriteMillis();
+
+    /**
+     * @return upper bounds (inclusive) of file latencies in ms of the latency histograms, Long.MAX_VALUE for the last
+     *         bucket
+     */
+    long[] getLatencyBucketMaxMillis();
+
+    /**
+     * @return files, bytes, times and latency histogram of every file size bucket
+     */
+    ViralCryptMetrics.SizeBucket[] getSizeBuckets();
+
+}
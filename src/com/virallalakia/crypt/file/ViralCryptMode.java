@@ -0,0 +1,22 @@
+package com.virallalakia.crypt.file;
+
+import java.security.MessageDigest;
+
+/**
+ * Encrypts/decrypts one input file of a run to its output file. Modes such as --incremental, --dedupe or --checksum
+ * wrap the mode to which they pass the files they do not skip, down to ViralCryptEngine.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+interface ViralCryptMode {
+
+    /**
+     * @param ipDigest if not null, updated with the content of the input file if the file is encrypted/decrypted
+     * @return result, never null
+     */
+    ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest);
+
+}
@@ -0,0 +1,76 @@
+package com.virallalakia.crypt.file;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream which encrypts/decrypts the bytes with the salt before writing them to the underlying output
+ * stream, the bytes are transformed exactly the same as ViralFileCrypt transforms a file with the same content.
+ * The bytes are transformed in a buffer of fixed size, the arrays provided to write methods are never changed.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptOutputStream extends FilterOutputStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024; // 8kb
+
+    private final ViralCryptKernel kernel;
+    private final byte[] buf;
+    private long position;
+
+    /**
+     * @param out underlying output stream
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptOutputStream(OutputStream out, String salt) {
+        this(out, salt, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out underlying output stream
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @param bufferSize size of the buffer in which the bytes are transformed
+     * @throws IllegalArgumentException if salt or buffer size is not valid
+     */
+    public ViralCryptOutputStream(OutputStream out, String salt, int bufferSize) {
+        this(out, ViralCryptKernel.forSalt(salt), 0, bufferSize);
+    }
+
+    ViralCryptOutputStream(OutputStream out, ViralCryptKernel kernel, long position, int bufferSize) {
+        super(out);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be a positive number");
+        }
+        this.kernel = kernel;
+        this.buf = new byte[bufferSize];
+        this.position = position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(kernel.crypt((byte) b, position++));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int n = Math.min(len, buf.length);
+            System.arraycopy(b, off, buf, 0, n);
+            kernel.crypt(ByteBuffer.wrap(buf, 0, n), position);
+            out.write(buf, 0, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+}
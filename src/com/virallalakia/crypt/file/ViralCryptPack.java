@@ -0,0 +1,355 @@
+package com.virallalakia.crypt.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Container of many encrypted files in a single file, so that packing millions of small files needs one output file
+ * instead of millions. The container has a plain header, the encrypted content of every entry, an encrypted index of
+ * the entries and a plain trailer pointing to the index:
+ *
+ * <pre>
+ * header  : magic (int), version (int), salt fingerprint (long)
+ * entries : content of every entry, encrypted as if it was a file of its own
+ * index   : count (int), then for every entry path (UTF), offset (long), length (long), last modified (long)
+ * trailer : index offset (long), index length (long), index checksum (int), magic (int)
+ * </pre>
+ *
+ * Each entry is encrypted from position 0, so a single entry can be extracted by reading only its bytes.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralCryptPack implements Closeable {
+
+    static final String PACK_EXT = ".vfcp";
+
+    private static final int MAGIC = 0x56464350; // VFCP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int TRAILER_SIZE = 8 + 8 + 4 + 4;
+    private static final int STAGE_BUFFER_SIZE = 1024 * 1024; // 1mb
+
+    static class Entry {
+
+        private final String path;
+        private final long offset;
+        private final long length;
+        private final long lastModified;
+
+        public Entry(String path, long offset, long length, long lastModified) {
+            super();
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return path of the entry relative to the input directory, with / as separator
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+    /**
+     * Writes a new container, files are added one after the other and the index is written when it is closed. The
+     * content of small files is collected in a stage buffer, so that many files are written with a single write.
+     */
+    static class Writer implements Closeable {
+
+        private final ViralCryptKernel kernel;
+        private final ViralCryptMetrics metrics;
+        private final FileChannel channel;
+        private final ByteBuffer stageBuf;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private long position;
+
+        Writer(File packFile, ViralCryptEngine engine) throws IOException {
+            this.kernel = engine.getKernel();
+            this.metrics = engine.getMetrics();
+            packFile.getAbsoluteFile().getParentFile().mkdirs();
+            this.channel = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.stageBuf = ByteBuffer.allocateDirect(Math.max(STAGE_BUFFER_SIZE, engine.getBufferSize()))
+                    .order(ByteOrder.nativeOrder());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(kernel.fingerprint()).flip();
+            write(header);
+        }
+
+        /**
+         * Adds the content of the input file as a new entry, if the file cannot be read the bytes already added stay
+         * in the container but no entry points to them.
+         */
+        ViralCryptResult add(String ipFilePath, String entryPath) {
+            long offset = position + stageBuf.position();
+            long length = 0;
+            long lastModified;
+            try (FileChannel ipChannel = FileChannel.open(Paths.get(ipFilePath), StandardOpenOption.READ)) {
+                lastModified = Files.readAttributes(Paths.get(ipFilePath), BasicFileAttributes.class)
+                        .lastModifiedTime().toMillis();
+                while (true) {
+                    if (!stageBuf.hasRemaining()) {
+                        flush();
+                    }
+                    int start = stageBuf.position();
+                    long readStart = System.nanoTime();
+                    int bytesRead = ipChannel.read(stageBuf);
+                    long xorStart = System.nanoTime();
+                    metrics.addReadNanos(xorStart - readStart);
+                    if (bytesRead == -1) {
+                        break;
+                    }
+                    ByteBuffer readBuf = stageBuf.duplicate().order(stageBuf.order());
+                    readBuf.position(start).limit(start + bytesRead);
+                    kernel.crypt(readBuf, length);
+                    metrics.addXorNanos(System.nanoTime() - xorStart);
+                    length += bytesRead;
+                }
+            } catch (FileNotFoundException e) {
+                return ViralCryptResult.failure(ipFilePath, entryPath,
+                        "could not find the file" + " [" + e.getMessage() + "]");
+            } catch (IOException e) {
+                return ViralCryptResult.failure(ipFilePath, entryPath,
+                        "error while read/write with file" + " [" + e.getMessage() + "]");
+            }
+            entries.add(new Entry(entryPath, offset, length, lastModified));
+            return ViralCryptResult.success(ipFilePath, entryPath, length);
+        }
+
+        private void flush() throws IOException {
+            stageBuf.flip();
+            write(stageBuf);
+            stageBuf.clear();
+        }
+
+        private void write(ByteBuffer byteBuf) throws IOException {
+            long writeStart = System.nanoTime();
+            while (byteBuf.hasRemaining()) {
+                position += channel.write(byteBuf);
+            }
+            metrics.addWriteNanos(System.nanoTime() - writeStart);
+        }
+
+        /**
+         * Writes the index and the trailer, and closes the container.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(indexBytes);
+                dos.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    dos.writeUTF(entry.getPath());
+                    dos.writeLong(entry.getOffset());
+                    dos.writeLong(entry.getLength());
+                    dos.writeLong(entry.getLastModified());
+                }
+                dos.flush();
+                ByteBuffer index = ByteBuffer.wrap(indexBytes.toByteArray());
+                kernel.crypt(index, 0);
+                CRC32 crc = new CRC32();
+                crc.update(index.array(), 0, index.limit());
+                long indexOffset = position;
+                write(index);
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+                trailer.putLong(indexOffset).putLong(index.limit()).putInt((int) crc.getValue()).putInt(MAGIC)
+                        .flip();
+                write(trailer);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+
+    }
+
+    private final FileChannel channel;
+    private final ViralCryptKernel kernel;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByPath;
+
+    private ViralCryptPack(FileChannel channel, ViralCryptKernel kernel, List<Entry> entries) {
+        this.channel = channel;
+        this.kernel = kernel;
+        this.entries = entries;
+        this.entriesByPath = new HashMap<String, Entry>(Math.max(16, 2 * entries.size()));
+        for (Entry entry : entries) {
+            // first entry of a path, as it is listed first
+            if (!entriesByPath.containsKey(entry.getPath())) {
+                entriesByPath.put(entry.getPath(), entry);
+            }
+        }
+    }
+
+    /**
+     * Opens an existing container and reads its index.
+     *
+     * @throws IOException if the file is not a container or it was created with another salt
+     */
+    static ViralCryptPack open(File packFile, ViralCryptKernel kernel) throws IOException {
+        FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            if (size < HEADER_SIZE + TRAILER_SIZE
+                    || ViralInPlaceJournal.readFully(channel, header, 0) != HEADER_SIZE
+                    || ViralInPlaceJournal.readFully(channel, trailer, size - TRAILER_SIZE) != TRAILER_SIZE) {
+                throw new IOException("invalid pack: " + packFile.getPath());
+            }
+            header.flip();
+            trailer.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || trailer.getInt(TRAILER_SIZE - 4) != MAGIC) {
+                throw new IOException("invalid pack: " + packFile.getPath());
+            }
+            if (header.getLong() != kernel.fingerprint()) {
+                throw new IOException("pack was created with a different salt: " + packFile.getPath());
+            }
+            long indexOffset = trailer.getLong();
+            long indexLength = trailer.getLong();
+            int indexCrc = trailer.getInt();
+            if (indexOffset < HEADER_SIZE || indexLength < 4 || indexLength > Integer.MAX_VALUE
+                    || indexOffset + indexLength != size - TRAILER_SIZE) {
+                throw new IOException("invalid pack index: " + packFile.getPath());
+            }
+            ByteBuffer index = ByteBuffer.allocate((int) indexLength);
+            ViralInPlaceJournal.readFully(channel, index, indexOffset);
+            CRC32 crc = new CRC32();
+            crc.update(index.array(), 0, index.position());
+            if (index.hasRemaining() || (int) crc.getValue() != indexCrc) {
+                throw new IOException("corrupted pack index: " + packFile.getPath());
+            }
+            index.flip();
+            kernel.crypt(index, 0);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(index.array()));
+            int count = dis.readInt();
+            List<Entry> entries = new ArrayList<Entry>(Math.max(0, Math.min(count, (int) (indexLength / 26))));
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(dis.readUTF(), dis.readLong(), dis.readLong(), dis.readLong());
+                if (!isRelativePath(entry.getPath())) {
+                    throw new IOException("entry path is not relative to the pack: " + entry.getPath());
+                }
+                entries.add(entry);
+            }
+            return new ViralCryptPack(channel, kernel, Collections.unmodifiableList(entries));
+        } catch (EOFException e) {
+            channel.close();
+            throw new IOException("corrupted pack index: " + packFile.getPath(), e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the entry path is relative to the pack, i.e. not empty, not absolute (with any separator or a
+     *         drive letter) and without .. segments
+     */
+    static boolean isRelativePath(String path) {
+        if (path.isEmpty() || path.startsWith("/") || path.startsWith("\\") || path.matches("^[A-Za-z]:.*")) {
+            return false;
+        }
+        return !("/" + path + "/").contains("/../");
+    }
+
+    /**
+     * @return path of the entry in the output directory, null if the entry path resolves outside of the output
+     *         directory (e.g. absolute paths, drive letters or .. with any separator)
+     */
+    static String getEntryOutputPath(String outputDirPath, String entryPath) {
+        try {
+            Path outputDir = Paths.get(outputDirPath).normalize();
+            Path opPath = outputDir.resolve(entryPath.replace("/", File.separator)).normalize();
+            return (opPath.startsWith(outputDir) && !opPath.equals(outputDir) ? opPath.toString() : null);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return entries in the order they were added
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return entry with the path, null if there is no such entry
+     */
+    Entry getEntry(String path) {
+        return entriesByPath.get(path);
+    }
+
+    /**
+     * Decrypts the content of the entry to the channel, only the bytes of the entry are read.
+     *
+     * @return number of bytes decrypted
+     */
+    long extract(Entry entry, WritableByteChannel opChannel, ByteBuffer byteBuf) throws IOException {
+        long bytes = 0;
+        while (bytes < entry.getLength()) {
+            byteBuf.clear();
+            byteBuf.limit((int) Math.min(byteBuf.capacity(), entry.getLength() - bytes));
+            int bytesRead = ViralInPlaceJournal.readFully(channel, byteBuf, entry.getOffset() + bytes);
+            if (bytesRead == 0) {
+                throw new EOFException("pack ends in the middle of entry: " + entry.getPath());
+            }
+            byteBuf.flip();
+            kernel.crypt(byteBuf, bytes);
+            while (byteBuf.hasRemaining()) {
+                opChannel.write(byteBuf);
+            }
+            bytes += bytesRead;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
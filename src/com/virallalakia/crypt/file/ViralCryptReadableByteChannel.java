@@ -0,0 +1,60 @@
+package com.virallalakia.crypt.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable byte channel which encrypts/decrypts the bytes read from the underlying channel with the salt, the
+ * bytes are transformed exactly the same as ViralFileCrypt transforms a file with the same content.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptReadableByteChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel channel;
+    private final ViralCryptKernel kernel;
+    private long position;
+
+    /**
+     * @param channel underlying channel
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptReadableByteChannel(ReadableByteChannel channel, String salt) {
+        this(channel, ViralCryptKernel.forSalt(salt), 0);
+    }
+
+    ViralCryptReadableByteChannel(ReadableByteChannel channel, ViralCryptKernel kernel, long position) {
+        this.channel = channel;
+        this.kernel = kernel;
+        this.position = position;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int bytesRead = channel.read(dst);
+        if (bytesRead > 0) {
+            ByteBuffer readBuf = dst.duplicate().order(dst.order());
+            readBuf.position(start).limit(start + bytesRead);
+            kernel.crypt(readBuf, position);
+            position += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.virallalakia.crypt.file;
+
+/**
+ * Result of encrypting/decrypting one file with ViralCryptEngine.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptResult {
+
+    private final String inputPath;
+    private final String outputPath;
+    private final long bytes;
+    private final String error;
+    private final boolean skipped;
+
+    private ViralCryptResult(String inputPath, String outputPath, long bytes, String error, boolean skipped) {
+        this.inputPath = inputPath;
+        this.outputPath = outputPath;
+        this.bytes = bytes;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    static ViralCryptResult success(String inputPath, String outputPath, long bytes) {
+        return new ViralCryptResult(inputPath, outputPath, bytes, null, false);
+    }
+
+    static ViralCryptResult skipped(String inputPath, String outputPath) {
+        return new ViralCryptResult(inputPath, outputPath, 0, null, true);
+    }
+
+    static ViralCryptResult failure(String inputPath, String outputPath, String error) {
+        return new ViralCryptResult(inputPath, outputPath, 0, error, false);
+    }
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    /**
+     * @return number of bytes encrypted/decrypted
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return error message if the file could not be encrypted/decrypted, null otherwise
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return true if the file was not encrypted/decrypted as its output is up to date
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ViralCryptResult [inputPath=").append(inputPath).append(", outputPath=").append(outputPath)
+                .append(", bytes=").append(bytes).append(", error=").append(error)
+                .append(", skipped=").append(skipped).append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.virallalakia.crypt.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Seekable byte channel which encrypts/decrypts the bytes read from/written to the underlying channel with the salt.
+ * The salt pattern of a byte depends only on its position in the file, so any range of an encrypted file can be
+ * decrypted by reading only the bytes of the range, the bytes are transformed exactly the same as ViralFileCrypt
+ * transforms the whole file.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptSeekableByteChannel implements SeekableByteChannel {
+
+    private static final int WRITE_BUFFER_SIZE = ViralCryptKernel.BLOCK_SIZE; // 64kb
+
+    private final SeekableByteChannel channel;
+    private final ViralCryptKernel kernel;
+    private ByteBuffer writeBuf;
+
+    /**
+     * @param channel underlying channel, e.g. a FileChannel of the encrypted file
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptSeekableByteChannel(SeekableByteChannel channel, String salt) {
+        this(channel, ViralCryptKernel.forSalt(salt));
+    }
+
+    ViralCryptSeekableByteChannel(SeekableByteChannel channel, ViralCryptKernel kernel) {
+        this.channel = channel;
+        this.kernel = kernel;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        long position = channel.position();
+        int start = dst.position();
+        int bytesRead = channel.read(dst);
+        if (bytesRead > 0) {
+            ByteBuffer readBuf = dst.duplicate().order(dst.order());
+            readBuf.position(start).limit(start + bytesRead);
+            kernel.crypt(readBuf, position);
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Writes the encrypted/decrypted bytes of the source buffer, the source buffer itself is not changed other than
+     * its position.
+     */
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        if (writeBuf == null) {
+            writeBuf = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        }
+        int bytesWritten = 0;
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(), writeBuf.capacity());
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + length);
+            writeBuf.clear();
+            writeBuf.put(chunk);
+            writeBuf.flip();
+            kernel.crypt(writeBuf, channel.position());
+            while (writeBuf.hasRemaining()) {
+                channel.write(writeBuf);
+            }
+            src.position(src.position() + length);
+            bytesWritten += length;
+        }
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public synchronized ViralCryptSeekableByteChannel position(long newPosition) throws IOException {
+        channel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized ViralCryptSeekableByteChannel truncate(long size) throws IOException {
+        channel.truncate(size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
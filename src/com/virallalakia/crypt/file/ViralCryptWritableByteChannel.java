@@ -0,0 +1,73 @@
+package com.virallalakia.crypt.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writable byte channel which encrypts/decrypts the bytes with the salt before writing them to the underlying
+ * channel, the bytes are transformed exactly the same as ViralFileCrypt transforms a file with the same content.
+ * The bytes are transformed in a direct buffer of fixed size, the buffers provided to write method are never
+ * changed. The underlying channel must be in blocking mode, as every transformed buffer is written completely.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+public class ViralCryptWritableByteChannel implements WritableByteChannel {
+
+    private final WritableByteChannel channel;
+    private final ViralCryptKernel kernel;
+    private final ByteBuffer byteBuf;
+    private long position;
+
+    /**
+     * @param channel underlying channel
+     * @param salt any string with the length of multiple of 4 (at least 4 characters)
+     * @throws IllegalArgumentException if salt is not valid
+     */
+    public ViralCryptWritableByteChannel(WritableByteChannel channel, String salt) {
+        this(channel, ViralCryptKernel.forSalt(salt), 0, ViralCryptKernel.BLOCK_SIZE);
+    }
+
+    ViralCryptWritableByteChannel(WritableByteChannel channel, ViralCryptKernel kernel, long position,
+            int bufferSize) {
+        this.channel = channel;
+        this.kernel = kernel;
+        this.byteBuf = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        this.position = position;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        int bytesWritten = 0;
+        while (src.hasRemaining()) {
+            ByteBuffer srcSlice = src.duplicate();
+            srcSlice.limit(srcSlice.position() + Math.min(srcSlice.remaining(), byteBuf.capacity()));
+            byteBuf.clear();
+            byteBuf.put(srcSlice);
+            byteBuf.flip();
+            kernel.crypt(byteBuf, position);
+            while (byteBuf.hasRemaining()) {
+                channel.write(byteBuf);
+            }
+            position += byteBuf.limit();
+            bytesWritten += byteBuf.limit();
+            src.position(srcSlice.position());
+        }
+        return bytesWritten;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * With --dedupe, links or copies the cached output of an identical input file instead of encrypting/decrypting the
+ * input file, otherwise the output file is cached for the next identical input files.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralDedupeMode implements ViralCryptMode {
+
+    private final ViralCryptEngine engine;
+    private final ViralCryptMode next;
+    private final ViralCryptDedupe dedupeCache;
+    private final String dedupeDirPath;
+    private final boolean links;
+    private final ViralCryptChecksums checksums;
+
+    /**
+     * @param next mode to which the files without cached output are passed
+     * @param dedupeDirPath directory of the cache, paths of the cached outputs are kept relative to it
+     * @param links if true, cached outputs are hard linked instead of copied where supported
+     * @param checksums checksums kept in the same directory, updated for copied outputs, can be null
+     */
+    ViralDedupeMode(ViralCryptEngine engine, ViralCryptMode next, ViralCryptDedupe dedupeCache, String dedupeDirPath,
+            boolean links, ViralCryptChecksums checksums) {
+        this.engine = engine;
+        this.next = next;
+        this.dedupeCache = dedupeCache;
+        this.dedupeDirPath = dedupeDirPath;
+        this.links = links;
+        this.checksums = checksums;
+    }
+
+    ViralCryptDedupe getDedupeCache() {
+        return dedupeCache;
+    }
+
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        long size = new File(ipFilePath).length();
+        MessageDigest contentDigest = ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM);
+        MessageDigest headDigest = ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM);
+        ViralCryptResult result = null;
+        byte[] hash = null;
+        byte[] headHash = null;
+        if (dedupeCache.containsSize(size)) {
+            // only the first 64kb of input files of the size of a cached output are read before they are
+            // encrypted/decrypted, and only files which match its first 64kb too are read in full
+            try {
+                engine.digestFile(ipFilePath, headDigest, ViralCryptDedupe.HEAD_SIZE);
+                headHash = headDigest.digest();
+                if (dedupeCache.containsHead(size, headHash)) {
+                    size = engine.digestFile(ipFilePath,
+                            (ipDigest == null ? contentDigest : ViralCryptChecksums.tee(ipDigest, contentDigest)));
+                    hash = contentDigest.digest();
+                    result = copyDuplicate(ipFilePath, opFilePath, size, hash);
+                    if (result != null) {
+                        return result;
+                    }
+                    result = next.cryptFile(ipFilePath, opFilePath, null);
+                }
+            } catch (IOException e) {
+                return ViralCryptResult.failure(ipFilePath, opFilePath,
+                        "error while deduplicating the file" + " [" + e.getMessage() + "]");
+            }
+        }
+        if (result == null) {
+            MessageDigest digest = (headHash == null ? ViralCryptChecksums.tee(contentDigest,
+                    ViralCryptChecksums.head(headDigest, ViralCryptDedupe.HEAD_SIZE)) : contentDigest);
+            result = next.cryptFile(ipFilePath, opFilePath,
+                    (ipDigest == null ? digest : ViralCryptChecksums.tee(ipDigest, digest)));
+            size = result.getBytes();
+            hash = contentDigest.digest();
+            if (headHash == null) {
+                headHash = headDigest.digest();
+            }
+        }
+        if (result.isSuccess()) {
+            dedupeCache.put(size, headHash, hash, new ViralCryptDedupe.CachedOutput(
+                    ViralFileCrypt.getRelativeEntryPath(dedupeDirPath, opFilePath), new File(opFilePath)
+                            .lastModified()));
+        }
+        return result;
+    }
+
+    /**
+     * Copies (or links) the cached output of an identical input file to the output file.
+     *
+     * @return result, null if there is no cached output or it was modified since it was cached
+     */
+    private ViralCryptResult copyDuplicate(String ipFilePath, String opFilePath, long size, byte[] hash)
+            throws IOException {
+        ViralCryptDedupe.CachedOutput cachedOutput = dedupeCache.get(size, hash);
+        if (cachedOutput == null) {
+            return null;
+        }
+        File cachedFile = new File(dedupeDirPath, cachedOutput.getOutputPath());
+        if (!cachedFile.isFile() || cachedFile.length() != size || cachedFile.lastModified() != cachedOutput
+                .getLastModified()) {
+            dedupeCache.remove(size, hash);
+            return null;
+        }
+        ViralCryptChecksums.Entry checksumsEntry = null;
+        if (checksums != null) {
+            checksumsEntry = checksums.get(cachedOutput.getOutputPath());
+            if (checksumsEntry == null) {
+                // cached output of a run without --checksum, its checksums are computed by encrypting/decrypting
+                return null;
+            }
+        }
+        ViralCryptDedupe.copy(cachedFile, new File(opFilePath), links);
+        if (checksumsEntry != null) {
+            checksums.put(ViralFileCrypt.getRelativeEntryPath(dedupeDirPath, opFilePath), checksumsEntry);
+        }
+        dedupeCache.hit();
+        return ViralCryptResult.success(ipFilePath, opFilePath, size);
+    }
+
+}
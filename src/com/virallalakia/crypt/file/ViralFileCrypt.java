@@ -1,25 +1,49 @@
 package com.virallalakia.crypt.file;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * @author Viral Lalakia (virallalakia)
@@ -30,33 +54,103 @@ import java.util.TreeMap;
 public class ViralFileCrypt {
 
     private static final String FILE_SEP = File.separator;
-    private static final int BYTE_BUFFER_SIZE = 64 * 1024; // 64kb
     private static final String DEFAULT_OUTPUT_DIR = "[VFC]";
+    static final String STREAM_PATH = "-";
+    private static final int PENDING_TASKS_PER_THREAD = 4;
+    private static final int MAX_THREADS_PER_PROCESSOR = 4;
+    private static final int INPUT_QUEUE_SIZE = 4096;
+    private static final int MAX_BUFFER_SIZE_KB = 16 * 1024; // 16mb
+    private static final int MAX_ASYNC_BUFFERS = 16;
+    private static final double MB = 1024.0 * 1024.0;
+    private static final String METRICS_DOMAIN = "com.virallalakia.crypt.file";
+    private static final AtomicInteger METRICS_RUNS = new AtomicInteger();
+
+    private PrintStream console;
+    private boolean verbose = true;
+    private int threads = 1;
+    private int bufferSize = ViralCryptEngine.DEFAULT_BUFFER_SIZE;
+    private int asyncBuffers = 0;
+    private boolean inPlace = false;
+    private boolean rollback = false;
+    private boolean incremental = false;
+    private boolean incrementalHash = false;
+    private boolean resume = false;
+    private boolean watch = false;
+    private String checksum = null;
+    private boolean verify = false;
+    private boolean dedupe = false;
+    private boolean dedupeLinks = false;
+    private String report = null;
+    private long rangeStart = -1;
+    private boolean pack = false;
+    private boolean list = false;
+    private String extractEntry = null;
+    private boolean unpack = false;
+    private List<String> includes = new ArrayList<String>();
+    private List<String> excludes = new ArrayList<String>();
+    private long rangeLength = -1;
+    private String salt = null;
+    private String input = "";
+    private String output = "";
+
+    private List<String> errors = new ArrayList<String>();
 
-    private static boolean verbose = true;
-    private static byte[] saltBytes = "_##_V_I_R_A_L__L_A_L_A_K_I_A_##_".getBytes();
-    private static int[] salt = new int[saltBytes.length / 4];
-    private static String input = "";
-    private static String output = "";
+    private File workingDir = null;
+    private ViralFileWatcher watcher = null;
 
-    private static List<String> errors = new ArrayList<String>();
+    /**
+     * @param console stream to which logs, errors and help are printed
+     */
+    public ViralFileCrypt(PrintStream console) {
+        this.console = console;
+    }
+
+    /**
+     * Runs a job of a client of the daemon, standard input and output are not available to the job.
+     *
+     * @param console stream to which logs, errors, help and pack listings are printed
+     * @param workingDir directory against which relative input/output/report paths are resolved
+     */
+    ViralFileCrypt(PrintStream console, File workingDir) {
+        this.console = console;
+        this.workingDir = workingDir;
+    }
 
+    /**
+     * Walks the input directory and puts the matching file paths into a bounded queue as they are found, so that
+     * the files can be encrypted/decrypted while the walk is in progress, END_OF_PATHS is put after the last path.
+     */
     static class ViralFileListMaker implements FileVisitor<Path> {
 
+        static final String END_OF_PATHS = "";
+
         private boolean allFiles;
         private String name;
         private String ext;
         private String exact;
+        private ViralPathFilter filter;
+        private String excludedExt;
 
-        private Set<String> paths;
+        private BlockingQueue<String> paths;
+        private volatile int count;
+        private volatile IOException error;
 
-        public ViralFileListMaker(boolean allFiles, String name, String ext, String exact) {
+        /**
+         * @param filter include/exclude rules of files and directories (e.g. output directory under input
+         *        directory is excluded), directories excluded by it are not walked
+         * @param excludedExt extension of files not to be matched (e.g. journal files), can be null
+         * @param paths queue into which matching file paths are put
+         */
+        public ViralFileListMaker(boolean allFiles, String name, String ext, String exact, ViralPathFilter filter,
+                String excludedExt, BlockingQueue<String> paths) {
             super();
             this.allFiles = allFiles;
             this.name = name;
             this.ext = ext;
             this.exact = exact;
-            this.paths = new HashSet<String>();
+            this.filter = filter;
+            this.excludedExt = excludedExt;
+            this.paths = paths;
         }
 
         public boolean isAllFiles() {
@@ -75,16 +169,67 @@ public class ViralFileCrypt {
             return exact;
         }
 
-        public Set<String> getPaths() {
-            return new HashSet<String>(paths);
+        /**
+         * @return number of matching files found so far
+         */
+        public int getCount() {
+            return count;
         }
 
-        public void resetPaths() {
-            paths.clear();
+        /**
+         * @return error which stopped the walk, null if the walk was completed or is in progress
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        /**
+         * Walks the directory up to maxDepth levels, END_OF_PATHS is put into the queue even if the walk fails.
+         */
+        public void walk(Path dir, int maxDepth) {
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), maxDepth, this);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                try {
+                    paths.put(END_OF_PATHS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * @return true if the directory and all its sub-directories must not be walked
+         */
+        public boolean isExcludedDir(Path path) {
+            return filter.isExcludedDir(path);
+        }
+
+        /**
+         * @return true if the file matches the input file name, is not excluded and is not a special file
+         */
+        public boolean isMatching(Path path, BasicFileAttributes atts) {
+            if (!atts.isRegularFile() && !path.toFile().isFile()) {
+                return false;
+            }
+            String fileName = path.getFileName().toString();
+            if (excludedExt != null && fileName.endsWith(excludedExt)) {
+                return false;
+            }
+            return (allFiles || (exact != null && exact.equals(fileName))
+                    || (exact == null && name == null && ext == null && fileName.contains("."))
+                    || (exact == null && name != null && ext == null && fileName.startsWith(name + "."))
+                    || (exact == null && name == null && ext != null && fileName.endsWith("." + ext)))
+                    && filter.isIncludedFile(path);
         }
 
         @Override
         public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes atts) {
+            if (isExcludedDir(path)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
             return FileVisitResult.CONTINUE;
         }
 
@@ -95,15 +240,14 @@ public class ViralFileCrypt {
 
         @Override
         public FileVisitResult visitFile(Path path, BasicFileAttributes mainAtts) {
-            File file = path.toFile();
-            String fileName = file.getName();
-            if (file.isFile()) {
-                if (allFiles || (exact != null && exact.equals(fileName))
-                        || (exact == null && name == null && ext == null && fileName.contains("."))
-                        || (exact == null && name != null && ext == null && fileName.startsWith(name + "."))
-                        || (exact == null && name == null && ext != null && fileName.endsWith("." + ext))) {
-                    paths.add(file.getAbsolutePath());
+            if (isMatching(path, mainAtts)) {
+                try {
+                    paths.put(path.toAbsolutePath().toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
                 }
+                count++;
             }
             return FileVisitResult.CONTINUE;
         }
@@ -117,169 +261,442 @@ public class ViralFileCrypt {
         public String toString() {
             StringBuilder builder = new StringBuilder();
             builder.append("ViralFileListMaker [allFiles=").append(allFiles).append(", name=").append(name)
-                    .append(", ext=").append(ext).append(", exact=").append(exact).append("]");
+                    .append(", ext=").append(ext).append(", exact=").append(exact).append(", filter=")
+                    .append(filter).append(", excludedExt=").append(excludedExt).append("]");
             return builder.toString();
         }
 
     }
 
-    private static void printErrors() {
+    /**
+     * Encrypts/decrypts one input file with the mode of the run, the result is returned with the index of the file so
+     * that the errors can be reported in the input order irrespective of the thread which processed the file and when
+     * it completed.
+     */
+    static class CryptTask implements Callable<ViralCryptResult> {
+
+        private ViralCryptMode mode;
+        private ViralCryptMetrics metrics;
+        private String ipFilePath;
+        private String opFilePath;
+        private int index;
+
+        public CryptTask(ViralCryptMode mode, ViralCryptMetrics metrics, String ipFilePath, String opFilePath,
+                int index) {
+            super();
+            this.mode = mode;
+            this.metrics = metrics;
+            this.ipFilePath = ipFilePath;
+            this.opFilePath = opFilePath;
+            this.index = index;
+        }
+
+        @Override
+        public ViralCryptResult call() {
+            long start = System.nanoTime();
+            ViralCryptResult result = mode.cryptFile(ipFilePath, opFilePath, null);
+            metrics.recordResult(result, System.nanoTime() - start);
+            return result;
+        }
+
+    }
+
+    private void printErrors() {
         if (!verbose || errors == null || errors.size() == 0) {
             return;
         }
-        System.out.println("Error(s) while running ViralFileCrypt for provided options:");
+        console.println("Error(s) while running ViralFileCrypt for provided options:");
         for (String error : errors) {
-            System.out.println("- " + error);
+            console.println("- " + error);
         }
-        System.out.println("");
-        System.out.println("Tip: To get help, run command without any options");
-        System.out.println("");
+        console.println("");
+        console.println("Tip: To get help, run command without any options");
+        console.println("");
     }
 
-    private static void printHelp() {
+    private void printHelp() {
         if (!verbose) {
             return;
         }
-        System.out.println("---------------------------------------");
-        System.out.println("  Usage and Syntax for ViralFileCrypt  ");
-        System.out.println("---------------------------------------");
-        System.out.println("");
-        System.out.println("Syntax: java -jar ViralFileCrypt.jar"
-                + " [-f] [-s <salt-string> -i <input-file(s)> [-o <output-file/directory>]]");
-        System.out.println("");
-        System.out.println("Options:");
-        System.out.println("");
-        System.out.println("   <without-any-options>   prints this help");
-        System.out.println("");
-        System.out.println("    -f                     logs will be turned off,");
-        System.out.println("    or     <verbose-off>   nothing will be be logged on the console,");
-        System.out.println("  --off                    including errors and this help");
-        System.out.println("");
-        System.out.println("    -s                     salt to be used to encrpyt/decrypt the file(s), same salt");
-        System.out.println("    or     <salt-string>   needs to be provided to decrypt the encrypted file(s),");
-        System.out.println("  --salt                   salt must be any string with the length of multiple of");
-        System.out.println("                           4 (at least 4 characters)");
-        System.out.println("");
-        System.out.println("    -i                     input file(s) to be encrpyted/decrypted, path can be");
-        System.out.println("    or    <input-file(s)>  absolute/relative to current directory, use wildcards");
-        System.out.println("  --input                  (*) to provide multiple filenames and (**) to include");
-        System.out.println("                           all sub-directories too, e.g.:");
-        System.out.println("                           abc/x.txt - x.txt file in abc directory");
-        System.out.println("                           abc/*     - all files in abc directory");
-        System.out.println("                           abc/*.*   - all files in abc directory with any extension");
-        System.out.println("                           abc/*.txt - all files in abc directory with .txt extension");
-        System.out.println("                                       and with any name");
-        System.out.println("                           abc/xyz.* - all files in abc directory with any extension");
-        System.out.println("                                       and with xyz name");
-        System.out.println("                           abc/**/*  - all files in abc and its sub-directories");
-        System.out.println("");
-        System.out.println("    -o                     optional option");
-        System.out.println("    or   <output-file/dir> if provided, output file/directory for generated");
-        System.out.println(" --output                    encrpyted/decrypted files, it will be used as output file if");
-        System.out.println("                             input is a single file, it will be used as output directory");
-        System.out.println("                             and all files will be generated using input file/directory");
-        System.out.println("                             names and structure if input is multiple files,");
-        System.out.println("                           if not provided, [VFC] will be used as output directory under");
-        System.out.println("                             input directory and all files will be generated using input");
-        System.out.println("                             file/directory names and structure");
-        System.out.println("");
-        System.out.println("");
+        console.println("---------------------------------------");
+        console.println("  Usage and Syntax for ViralFileCrypt  ");
+        console.println("---------------------------------------");
+        console.println("");
+        console.println("Syntax: java -jar ViralFileCrypt.jar"
+                + " [-f] [-s <salt-string> -i <input-file(s)> [-o <output-file/directory> | --in-place [--rollback]]"
+                + " [-t <threads> | -p] [-b <buffer-size>] [--async-io <buffers>]"
+                + " [--incremental [--incremental-hash]] [--resume] [--watch] [--checksum <algorithm> | --verify]"
+                + " [--dedupe [--dedupe-links]] [--range <start>:<length>]"
+                + " [--include <pattern>]... [--exclude <pattern>]..."
+                + " [--pack | --list | --extract <entry> | --unpack] [--report <report-file>]]");
+        console.println("        java -jar ViralFileCrypt.jar --daemon [<port>]");
+        console.println("        java -jar ViralFileCrypt.jar --client <options>");
+        console.println("");
+        console.println("Options:");
+        console.println("");
+        console.println("   <without-any-options>   prints this help");
+        console.println("");
+        console.println("    -f                     logs will be turned off,");
+        console.println("    or     <verbose-off>   nothing will be be logged on the console,");
+        console.println("  --off                    including errors and this help");
+        console.println("");
+        console.println("    -s                     salt to be used to encrpyt/decrypt the file(s), same salt");
+        console.println("    or     <salt-string>   needs to be provided to decrypt the encrypted file(s),");
+        console.println("  --salt                   salt must be any string with the length of multiple of");
+        console.println("                           4 (at least 4 characters)");
+        console.println("");
+        console.println("    -i                     input file(s) to be encrpyted/decrypted, path can be");
+        console.println("    or    <input-file(s)>  absolute/relative to current directory, use wildcards");
+        console.println("  --input                  (*) to provide multiple filenames and (**) to include");
+        console.println("                           all sub-directories too, e.g.:");
+        console.println("                           abc/x.txt - x.txt file in abc directory");
+        console.println("                           abc/*     - all files in abc directory");
+        console.println("                           abc/*.*   - all files in abc directory with any extension");
+        console.println("                           abc/*.txt - all files in abc directory with .txt extension");
+        console.println("                                       and with any name");
+        console.println("                           abc/xyz.* - all files in abc directory with any extension");
+        console.println("                                       and with xyz name");
+        console.println("                           abc/**/*  - all files in abc and its sub-directories");
+        console.println("                           abc/x*.{jpg,png} - any other glob pattern of file names");
+        console.println("                           -         - standard input, output will be written to");
+        console.println("                                       standard output if -o is not provided");
+        console.println("");
+        console.println("    -o                     optional option");
+        console.println("    or   <output-file/dir> if provided, output file/directory for generated");
+        console.println(" --output                    encrpyted/decrypted files, it will be used as output file if");
+        console.println("                             input is a single file, it will be used as output directory");
+        console.println("                             and all files will be generated using input file/directory");
+        console.println("                             names and structure if input is multiple files,");
+        console.println("                           if not provided, [VFC] will be used as output directory under");
+        console.println("                             input directory and all files will be generated using input");
+        console.println("                             file/directory names and structure,");
+        console.println("                           if - is provided, output will be written to standard output,");
+        console.println("                             only for a single input file, logs will be written to");
+        console.println("                             standard error");
+        console.println("");
+        console.println("    -t                     optional option");
+        console.println("    or       <threads>     number of files to be encrpyted/decrypted in parallel,");
+        console.println(" --threads                   default is 1 (one file at a time), files of at least 64mb");
+        console.println("                             are split into regions of 16mb processed in parallel too,");
+        console.println("                             within the same number of threads, at most 4 times the");
+        console.println("                             number of available processors, files are not split with");
+        console.println("                             --incremental-hash, --checksum or --dedupe which hash each");
+        console.println("                             file in a single pass");
+        console.println("");
+        console.println("    -p                     optional option");
+        console.println("    or                     same as -t with the number of available processors");
+        console.println(" --parallel");
+        console.println("");
+        console.println("    -b                     optional option");
+        console.println("    or     <buffer-size>   size of the buffers used to read/write the files in kb,");
+        console.println(" --buffer-size               default is 64, at most 16384 (16mb)");
+        console.println("");
+        console.println(" --async-io <buffers>     optional option");
+        console.println("                           files will be read/written asynchronously with these many");
+        console.println("                             rotating buffers per file (at least 2, at most 16), so that");
+        console.println("                             reading and writing overlap with encryption/decryption,");
+        console.println("                             useful for network and spinning storage");
+        console.println("");
+        console.println(" --in-place               optional option");
+        console.println("                           input file(s) will be overwritten with the encrpyted/decrypted");
+        console.println("                             file(s), a journal <input-file>.vfcj is kept for each file");
+        console.println("                             while it is processed, completed files are journaled in");
+        console.println("                             .vfc-checkpoint in the input directory till the run is");
+        console.println("                             completed, if the run is interrupted, run the same command");
+        console.println("                             again to resume it");
+        console.println("");
+        console.println(" --rollback               optional option, only with --in-place");
+        console.println("                           restores the input file(s) of an interrupted --in-place run");
+        console.println("                             (run the same command with --rollback) using their journals");
+        console.println("                             and the checkpoint, other files are not changed");
+        console.println("");
+        console.println(" --incremental            optional option, only with input file(s) and output file(s)");
+        console.println("                           a manifest .vfc-manifest is kept in the output directory, files");
+        console.println("                             with the same size and last modified time as in the last run");
+        console.println("                             are skipped and output files of deleted input files are");
+        console.println("                             deleted");
+        console.println("");
+        console.println(" --incremental-hash       optional option, only with --incremental");
+        console.println("                           a SHA-256 hash of each input file is kept in the manifest too,");
+        console.println("                             files with only a different last modified time are skipped");
+        console.println("                             if their hash is not changed");
+        console.println("");
+        console.println(" --resume                 optional option, only with input files and output directory");
+        console.println("                           completed input files are journaled in .vfc-checkpoint in the");
+        console.println("                             output directory till the run is completed, if the run is");
+        console.println("                             interrupted, run the same command again to resume it, files");
+        console.println("                             completed by the interrupted run are skipped");
+        console.println("");
+        console.println(" --watch                  optional option, only with input files and output directory");
+        console.println("                           after the run, the input directory (and its sub-directories");
+        console.println("                             with **) is watched and new and modified matching files are");
+        console.println("                             encrpyted/decrypted once they are not changed for a second,");
+        console.println("                             till the process is stopped");
+        console.println("");
+        console.println(" --checksum <algorithm>   optional option, only with input file(s) and output file(s)");
+        console.println("                           checksums (crc32, crc32c with Java 9 or later, or sha256) of");
+        console.println("                             each input and output file are computed while the file is");
+        console.println("                             encrpyted/decrypted and kept in .vfc-checksums in the output");
+        console.println("                             directory");
+        console.println("");
+        console.println(" --verify                 optional option, only with input file(s)");
+        console.println("                           input file(s) are the output file(s) of a --checksum run, each");
+        console.println("                             file is read once and both its checksum and the checksum of");
+        console.println("                             its encrpyted/decrypted content are verified, no output is");
+        console.println("                             written");
+        console.println("");
+        console.println(" --dedupe                 optional option, only with input file(s) and output file(s)");
+        console.println("                           output of an input file identical to an input file already");
+        console.println("                             encrpyted/decrypted into the output directory is a copy of");
+        console.println("                             that output instead, sizes and SHA-256 hashes of the input");
+        console.println("                             files are cached in .vfc-dedupe in the output directory for");
+        console.println("                             the next runs");
+        console.println("");
+        console.println(" --dedupe-links           optional option, only with option --dedupe");
+        console.println("                           copies are hard links of the output where supported, so that");
+        console.println("                             they take no space, an in-place run over the output");
+        console.println("                             directory must not be used as it would change them together");
+        console.println("");
+        console.println(" --range <start>:<length> optional option, only with a single input file");
+        console.println("                           only <length> bytes from byte <start> of the input file will be");
+        console.println("                             encrpyted/decrypted by reading only those bytes, output is");
+        console.println("                             the same as the same bytes of the whole output, output will");
+        console.println("                             be written to standard output if -o is not provided");
+        console.println("");
+        console.println(" --include <pattern>      optional option, can be provided many times");
+        console.println("                           only input files matching any of the patterns will be");
+        console.println("                             encrpyted/decrypted, a glob pattern without / (e.g. *.log)");
+        console.println("                             is matched against the file name, other patterns (e.g.");
+        console.println("                             src/**.java) against the path relative to input directory,");
+        console.println("                             prefix regex: to provide a regular expression instead");
+        console.println("");
+        console.println(" --exclude <pattern>      optional option, can be provided many times");
+        console.println("                           input files and directories matching any of the patterns");
+        console.println("                             (same as --include) will be skipped, sub-directories of a");
+        console.println("                             skipped directory (e.g. node_modules) are not read at all,");
+        console.println("                             [VFC] directories of earlier runs are always skipped");
+        console.println("");
+        console.println(" --pack                   optional option");
+        console.println("                           input file(s) will be encrpyted/decrypted into a single pack");
+        console.println("                             file (-o, default is [VFC].vfcp under input directory) with");
+        console.println("                             an index of their paths, offsets, lengths and last modified");
+        console.println("                             times, files are packed one at a time");
+        console.println("");
+        console.println(" --list                   optional option, input must be a pack file");
+        console.println("                           entries of the pack will be listed on standard output");
+        console.println("");
+        console.println(" --extract <entry>        optional option, input must be a pack file");
+        console.println("                           only the entry will be decrypted to the output file, output");
+        console.println("                             will be written to standard output if -o is not provided");
+        console.println("");
+        console.println(" --unpack                 optional option, input must be a pack file");
+        console.println("                           all entries will be decrypted under the output directory,");
+        console.println("                             default is [VFC] under the directory of the pack file");
+        console.println("");
+        console.println(" --daemon [<port>]        only as the first option, with no other options");
+        console.println("                           keeps running and runs the jobs of --client commands without");
+        console.println("                             starting a new JVM for every job, listens on a loopback port");
+        console.println("                             (any free port if not provided) written to ~/.vfc-daemon");
+        console.println("                             with a token which clients must send");
+        console.println("");
+        console.println(" --client <options>       only as the first option");
+        console.println("                           the options are run as a job by the running daemon, relative");
+        console.println("                             paths are resolved against the current directory and the");
+        console.println("                             output of the job is printed as it is running, the exit");
+        console.println("                             status is 1 if the job had errors, standard input/output (-)");
+        console.println("                             and --watch are not supported");
+        console.println("");
+        console.println(" --report <report-file>   optional option");
+        console.println("                           a JSON report with the bytes and files processed, bytes/s,");
+        console.println("                             latency histograms per file size, time spent in walk, read,");
+        console.println("                             XOR and write, and the errors will be written to the file,");
+        console.println("                             the same metrics are available with JMX during the run");
+        console.println("");
+        console.println("");
     }
 
-    private static void prepareSalt(String saltStr) {
+    private void prepareSalt(String saltStr) {
         if (saltStr != null && saltStr.length() >= 4) {
-            saltBytes = saltStr.getBytes();
-            salt = new int[saltBytes.length / 4];
+            salt = saltStr;
         } else {
             errors.add("salt must be any string with the length of multiple of 4 (at least 4 characters)");
+        }
+    }
+
+    /**
+     * @return mode which verifies the input files against their checksums, nothing is written
+     */
+    private static ViralCryptMode newVerifyMode(final ViralChecksumMode checksumMode) {
+        return new ViralCryptMode() {
+
+            @Override
+            public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+                return checksumMode.verifyFile(ipFilePath);
+            }
+
+        };
+    }
+
+    /**
+     * @return mode which packs the input files one at a time, the output path is the entry path
+     */
+    private static ViralCryptMode newPackMode(final ViralCryptPack.Writer packWriter) {
+        return new ViralCryptMode() {
+
+            @Override
+            public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+                return packWriter.add(ipFilePath, opFilePath);
+            }
+
+        };
+    }
+
+    /**
+     * @return path of the file relative to the directory, the file must be under the directory
+     */
+    static String getRelativePath(String dirPath, String path) {
+        String relativePath = path.substring(dirPath.length());
+        while (relativePath.startsWith(FILE_SEP)) {
+            relativePath = relativePath.substring(FILE_SEP.length());
+        }
+        return relativePath;
+    }
+
+    /**
+     * @return path of the file relative to the directory with / as separator, as kept in checksums and caches
+     */
+    static String getRelativeEntryPath(String dirPath, String path) {
+        return getRelativePath(dirPath, path).replace(FILE_SEP, "/");
+    }
+
+    /**
+     * Registers the metrics of the run as an MBean, so that the run can be monitored with JMX tools.
+     *
+     * @return name of the MBean, null if it could not be registered
+     */
+    private static ObjectName registerMetrics(ViralCryptMetrics metrics) {
+        try {
+            ObjectName metricsName = new ObjectName(
+                    METRICS_DOMAIN + ":type=ViralCryptMetrics,name=run-" + METRICS_RUNS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+            return metricsName;
+        } catch (JMException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static void unregisterMetrics(ObjectName metricsName) {
+        if (metricsName == null) {
             return;
         }
-        for (int i = 0; i < salt.length; i++) {
-            salt[i] = (((int) saltBytes[4 * i]) << 24) + (((int) saltBytes[4 * i + 1]) << 16)
-                    + (((int) saltBytes[4 * i + 2]) << 8) + (((int) saltBytes[4 * i + 3]));
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException | SecurityException e) {
+            // the MBean is dropped with the JVM
         }
     }
 
-    private static boolean cryptFileByByte(String ipFilePath, String opFilePath) {
-        File ipFile = new File(ipFilePath);
-        File opFile = new File(opFilePath);
-        if (!ipFile.exists() || !ipFile.isFile()) {
-            errors.add("input file does not exists: " + ipFilePath);
-            return false;
+    /**
+     * Writes the options, metrics and errors of the run to the report file as JSON.
+     */
+    private void writeReport(ViralCryptMetrics metrics, int countSuccess, int countDeduplicated) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append("  \"input\": ").append(ViralCryptMetrics.toJsonString(input)).append(",\n");
+        builder.append("  \"output\": ").append(ViralCryptMetrics.toJsonString(output)).append(",\n");
+        builder.append("  \"threads\": ").append(threads).append(",\n");
+        builder.append("  \"bufferSize\": ").append(bufferSize).append(",\n");
+        builder.append("  \"asyncBuffers\": ").append(asyncBuffers).append(",\n");
+        builder.append("  \"inPlace\": ").append(inPlace).append(",\n");
+        builder.append("  \"rollback\": ").append(rollback).append(",\n");
+        builder.append("  \"incremental\": ").append(incremental).append(",\n");
+        builder.append("  \"resume\": ").append(resume).append(",\n");
+        builder.append("  \"dedupe\": ").append(dedupe).append(",\n");
+        builder.append("  \"deduplicatedFiles\": ").append(countDeduplicated).append(",\n");
+        builder.append("  \"successfulFiles\": ").append(countSuccess).append(",\n");
+        builder.append("  \"metrics\": ").append(metrics == null ? "null" : metrics.toJson("  ")).append(",\n");
+        builder.append("  \"errors\": [");
+        for (int i = 0; i < errors.size(); i++) {
+            builder.append(i == 0 ? "\n" : ",\n").append("    ").append(ViralCryptMetrics.toJsonString(errors.get(i)));
         }
-        if (opFile.exists()) {
-            try {
-                opFile.delete();
-            } catch (SecurityException e) {
-                errors.add("could not delete existing output file: " + opFilePath + " [" + e.getMessage() + "]");
-                return false;
+        builder.append(errors.isEmpty() ? "]\n" : "\n  ]\n");
+        builder.append("}\n");
+        try {
+            File reportFile = new File(report).getAbsoluteFile();
+            reportFile.getParentFile().mkdirs();
+            Files.write(reportFile.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            errors.add("could not write report: " + report + " [" + e.getMessage() + "]");
+        }
+    }
+
+    private static Thread startWalker(final ViralFileListMaker viralFileListMaker, final Path dir,
+            final int maxDepth, final ViralCryptMetrics metrics) {
+        Thread walker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                viralFileListMaker.walk(dir, maxDepth);
+                metrics.addWalkNanos(System.nanoTime() - start);
             }
+
+        }, "ViralFileCrypt-walker");
+        walker.setDaemon(true);
+        walker.start();
+        return walker;
+    }
+
+    /**
+     * @return next input file path from the queue, null if all the input file paths are taken
+     */
+    private static String takeInputPath(BlockingQueue<String> inputPaths) throws InterruptedIOException {
+        try {
+            String path = inputPaths.take();
+            return (ViralFileListMaker.END_OF_PATHS.equals(path) ? null : path);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for input files");
+        }
+    }
+
+    /**
+     * @return output file path of the input file, or the entry path if input files are packed
+     */
+    private String getOutputPath(String ipFilePath, String inputDirPath, String outputDirPath) {
+        if (pack) {
+            return getRelativePath(inputDirPath, ipFilePath).replace(FILE_SEP, "/");
+        } else if (inPlace || verify) {
+            return ipFilePath;
+        } else if ("".equals(outputDirPath)) {
+            return output;
+        } else {
+            return outputDirPath + ipFilePath.substring(inputDirPath.length());
         }
+    }
+
+    private ViralCryptResult getTaskResult(Future<ViralCryptResult> task, String ipFilePath, String opFilePath) {
         try {
-            opFile.getParentFile().mkdirs();
-            if (!opFile.createNewFile()) {
-                errors.add("could not create output file: " + opFilePath);
-                return false;
-            }
-        } catch (SecurityException | IOException e) {
-            errors.add("could not create output file: " + opFilePath + " [" + e.getMessage() + "]");
-            return false;
-        }
-        try (FileInputStream ipFis = new FileInputStream(ipFile);
-                FileOutputStream opFis = new FileOutputStream(opFile);
-                FileChannel ipChannel = ipFis.getChannel();
-                FileChannel opChannel = opFis.getChannel()) {
-            ByteBuffer byteBuf = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
-            byteBuf.clear();
-            long byteLimit = 0;
-            long intLimit = 0;
-            int[] intArr = new int[BYTE_BUFFER_SIZE / 4];
-            while ((byteLimit = ipChannel.read(byteBuf)) != -1) {
-                while (byteBuf.position() % 4 != 0 && byteBuf.position() + 1 < BYTE_BUFFER_SIZE) {
-                    byteBuf.put((byte) 127);
-                }
-                byteBuf.flip();
-                intLimit = (long) Math.ceil(byteBuf.limit() / 4);
-                byteBuf.asIntBuffer().get(intArr, 0, (int) intLimit);
-                byteBuf.clear();
-                for (int i = 0; i < (int) intLimit; i++) {
-                    intArr[i] ^= salt[i % salt.length];
-                    if (byteBuf.position() + 4 <= byteLimit) {
-                        byteBuf.putInt(intArr[i]);
-                    } else {
-                        if (byteBuf.position() < byteLimit) {
-                            byteBuf.put((byte) (intArr[i] >> 24));
-                            if (byteBuf.position() < byteLimit) {
-                                byteBuf.put((byte) (intArr[i] >> 16));
-                                if (byteBuf.position() < byteLimit) {
-                                    byteBuf.put((byte) (intArr[i] >> 8));
-                                    if (byteBuf.position() < byteLimit) {
-                                        byteBuf.put((byte) (intArr[i]));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-                byteBuf.flip();
-                opChannel.write(byteBuf);
-                byteBuf.clear();
-            }
-        } catch (FileNotFoundException e) {
-            errors.add("could not find the file" + " [" + e.getMessage() + "]");
-            return false;
-        } catch (IOException e) {
-            errors.add("error while read/write with file" + " [" + e.getMessage() + "]");
-            return false;
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "interrupted while waiting for the file to be processed");
+        } catch (ExecutionException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "error while processing the file" + " [" + e.getCause() + "]");
         }
-        return true;
     }
 
-    private static void processViralFileCrypt() throws IOException {
-        Map<String, String> inputOutputFilePaths = new TreeMap<String, String>();
+    /**
+     * @param changedPaths if not null, only these files of the input are encrypted/decrypted instead of walking the
+     *        input directory, e.g. files changed while watching the input directory
+     */
+    private void processViralFileCrypt(List<String> changedPaths) throws IOException {
         boolean multiFileFlag = false;
         boolean recursive = false;
         boolean allFiles = false;
+        String nameGlob = null;
         String name = null;
         String ext = null;
         String exact = null;
@@ -289,13 +706,16 @@ public class ViralFileCrypt {
 
         // process input
         File inputFile = new File(input);
-        input = inputFile.getAbsolutePath();
+        if (!STREAM_PATH.equals(input)) {
+            input = inputFile.getAbsolutePath();
+        }
 
-        if (inputFile.exists() && inputFile.isFile()) {
+        if (STREAM_PATH.equals(input)) {
+            multiFileFlag = false;
+        } else if (inputFile.exists() && inputFile.isFile()) {
             multiFileFlag = false;
             inputFileName = inputFile.getName();
             inputDirPath = inputFile.getParent();
-            inputOutputFilePaths.put(input, "");
         } else if (input.indexOf("*") != -1) {
             multiFileFlag = true;
             inputFileName = inputFile.getName();
@@ -328,6 +748,7 @@ public class ViralFileCrypt {
                     return;
                 }
             }
+            inputDirPath = inputFile.getPath();
             if (inputFileName.indexOf("*") != -1) {
                 if ("*".equals(inputFileName)) {
                     allFiles = true;
@@ -340,24 +761,46 @@ public class ViralFileCrypt {
                 } else if (inputFileName.endsWith(".*")) {
                     name = inputFileName.substring(0, inputFileName.length() - 2);
                     ext = null;
+                } else {
+                    // any other glob pattern (e.g. report-*.csv, *.{jpg,png}) is matched with a path matcher
+                    allFiles = true;
+                    nameGlob = inputFileName;
                 }
             } else {
                 exact = inputFileName;
             }
-            ViralFileListMaker viralFileListMaker = new ViralFileListMaker(allFiles, name, ext, exact);
-            Files.walkFileTree(inputFile.toPath(), EnumSet.noneOf(FileVisitOption.class),
-                    (recursive ? Integer.MAX_VALUE : 1), viralFileListMaker);
-            for (String path : viralFileListMaker.getPaths()) {
-                inputOutputFilePaths.put(path, "");
-            }
         } else {
             errors.add("invalid input file(s)");
             return;
         }
 
-        // process output
-        if (output == null || "".equals(output)) {
+        if (rangeStart >= 0 && multiFileFlag) {
+            errors.add("option --range is supported only for a single input file");
+            return;
+        }
+        if (resume && !multiFileFlag) {
+            errors.add("option --resume is supported only for multiple input files");
+            return;
+        }
+        if (watch && !multiFileFlag) {
+            errors.add("option --watch is supported only for multiple input files");
+            return;
+        }
+
+        // process output, output file path of each input file is derived from outputDirPath if it is not empty
+        if (pack) {
+            output = ("".equals(output) ? inputDirPath + FILE_SEP + DEFAULT_OUTPUT_DIR + ViralCryptPack.PACK_EXT
+                    : new File(output).getAbsolutePath());
+            outputDirPath = "";
+        } else if (inPlace || verify) {
+            outputDirPath = "";
+        } else if (output == null || "".equals(output)) {
             outputDirPath = inputDirPath + FILE_SEP + DEFAULT_OUTPUT_DIR;
+        } else if (STREAM_PATH.equals(output)) {
+            if (multiFileFlag) {
+                errors.add("output to standard output is supported only for a single input file");
+                return;
+            }
         } else {
             File outputFile = new File(output);
             output = outputFile.getAbsolutePath();
@@ -366,52 +809,508 @@ public class ViralFileCrypt {
                 if (inputDirPath.equals(outputDirPath)) {
                     outputDirPath = inputDirPath + FILE_SEP + DEFAULT_OUTPUT_DIR;
                 }
-            } else {
-                inputOutputFilePaths.put(input, output);
             }
         }
-        if (output == null || "".equals(output) || multiFileFlag) {
-            for (String inputPath : inputOutputFilePaths.keySet()) {
-                inputOutputFilePaths.put(inputPath, outputDirPath + inputPath.substring(inputDirPath.length()));
+
+        // manifest, checksums and dedupe cache are kept in the output directory, or next to the output file
+        String metadataDirPath = (multiFileFlag || "".equals(output) ? outputDirPath : new File(output).getParent());
+        ViralCryptManifest manifest = null;
+        if (incremental) {
+            try {
+                manifest = ViralCryptManifest.load(new File(metadataDirPath), ViralCryptKernel.forSalt(salt)
+                        .fingerprint(), input);
+            } catch (IOException e) {
+                errors.add("could not load manifest" + " [" + e.getMessage() + "]");
+                return;
             }
         }
 
-        Set<String> inputPathSet = inputOutputFilePaths.keySet();
-        int totalInputFiles = inputPathSet.size();
-        int count = 0;
+        ViralCryptChecksums checksums = null;
+        String checksumsDirPath = (verify ? ViralChecksumMode.findChecksumsDirPath(inputDirPath) : metadataDirPath);
+        if (checksum != null || verify) {
+            try {
+                checksums = ViralCryptChecksums.load(new File(checksumsDirPath), checksum);
+            } catch (IOException e) {
+                errors.add("could not load checksums" + " [" + e.getMessage() + "]");
+                return;
+            }
+            if (checksums == null) {
+                errors.add("no checksums to verify: " + new File(checksumsDirPath, ViralCryptChecksums.CHECKSUMS_FILE)
+                        .getPath());
+                return;
+            }
+        }
+
+        ViralCryptDedupe dedupeCache = null;
+        if (dedupe) {
+            try {
+                dedupeCache = ViralCryptDedupe.load(new File(metadataDirPath), ViralCryptKernel.forSalt(salt)
+                        .fingerprint());
+            } catch (IOException e) {
+                errors.add("could not load dedupe cache" + " [" + e.getMessage() + "]");
+                return;
+            }
+        }
+
+        // with --resume or --in-place, completed input files are journaled, so that an interrupted run can be resumed
+        ViralCryptCheckpoint checkpoint = null;
+        if ((resume || (inPlace && multiFileFlag)) && changedPaths == null) {
+            try {
+                checkpoint = ViralCryptCheckpoint.open(new File(inPlace ? inputDirPath : outputDirPath),
+                        ViralCryptKernel.forSalt(salt).fingerprint(), input);
+            } catch (IOException e) {
+                errors.add("could not open checkpoint" + " [" + e.getMessage() + "]");
+                return;
+            }
+        }
+
+        // input files are walked in a separate thread and encrypted/decrypted as they are found
+        BlockingQueue<String> inputPaths = new ArrayBlockingQueue<String>(
+                (changedPaths == null ? INPUT_QUEUE_SIZE : Math.max(INPUT_QUEUE_SIZE, changedPaths.size() + 1)));
+        ViralFileListMaker viralFileListMaker = null;
+        Thread walker = null;
+
+        int totalInputFiles = 0;
         int countSuccess = 0;
+        int countSkipped = 0;
+        int countRemoved = 0;
+        int countResumed = 0;
+        boolean checkpointFailed = false;
         long t = System.currentTimeMillis();
-        for (String inputPath : inputPathSet) {
-            if (cryptFileByByte(inputPath, inputOutputFilePaths.get(inputPath))) {
-                countSuccess++;
-            }
-            count++;
-            if (verbose) {
-                if (System.currentTimeMillis() - t >= 4000 && count < totalInputFiles) {
-                    t = System.currentTimeMillis();
-                    System.out.println(String.format("Processed files: %d of %d (%.2f%%)", count, totalInputFiles,
-                            (100.0 * count / totalInputFiles)));
+        ExecutorService executor = (threads > 1 && !pack ? Executors.newFixedThreadPool(threads) : null);
+        ObjectName metricsName = null;
+        ViralCryptMetrics metrics = null;
+        ViralCryptPack.Writer packWriter = null;
+        try (ViralCryptEngine engine = new ViralCryptEngine(salt, bufferSize, threads, asyncBuffers)) {
+            metrics = engine.getMetrics();
+            metricsName = registerMetrics(metrics);
+            if (pack) {
+                try {
+                    packWriter = new ViralCryptPack.Writer(new File(output), engine);
+                } catch (IOException e) {
+                    errors.add("could not create pack: " + output + " [" + e.getMessage() + "]");
+                    return;
+                }
+            }
+            // modes which skip or deduplicate input files wrap the modes which encrypt/decrypt them
+            ViralChecksumMode checksumMode = (checksums == null ? null
+                    : new ViralChecksumMode(engine, checksums, checksumsDirPath));
+            ViralIncrementalMode incrementalMode = null;
+            ViralResumeMode resumeMode = null;
+            ViralCryptMode mode;
+            if (inPlace) {
+                ViralInPlaceMode inPlaceMode = new ViralInPlaceMode(engine, rollback, checkpoint, inputDirPath);
+                if (rollback && checkpoint != null) {
+                    try {
+                        inPlaceMode.journalCompletedFiles();
+                    } catch (IOException e) {
+                        errors.add("could not journal completed files of interrupted run" + " [" + e.getMessage()
+                                + "]");
+                        return;
+                    }
+                    checkpoint = null;
+                }
+                mode = inPlaceMode;
+            } else if (verify) {
+                mode = newVerifyMode(checksumMode);
+            } else if (rangeStart >= 0 || STREAM_PATH.equals(input) || STREAM_PATH.equals(output)) {
+                mode = new ViralStreamMode(engine, rangeStart, rangeLength);
+            } else if (packWriter != null) {
+                mode = newPackMode(packWriter);
+            } else {
+                mode = (checksumMode == null ? engine : checksumMode);
+                if (dedupeCache != null) {
+                    mode = new ViralDedupeMode(engine, mode, dedupeCache, metadataDirPath, dedupeLinks, checksums);
+                }
+                if (manifest != null) {
+                    incrementalMode = new ViralIncrementalMode(engine, mode, manifest, inputDirPath, metadataDirPath,
+                            incrementalHash);
+                    mode = incrementalMode;
+                }
+                if (checkpoint != null) {
+                    resumeMode = new ViralResumeMode(mode, incrementalMode, checkpoint, inputDirPath);
+                    mode = resumeMode;
+                }
+            }
+            if (multiFileFlag) {
+                Set<Path> excludedPaths = new HashSet<Path>();
+                if (!"".equals(outputDirPath)) {
+                    excludedPaths.add(Paths.get(outputDirPath).normalize());
                 }
+                if (pack) {
+                    excludedPaths.add(Paths.get(output).normalize());
+                }
+                if (inPlace) {
+                    excludedPaths.add(Paths.get(inputDirPath, ViralCryptCheckpoint.CHECKPOINT_FILE).normalize());
+                }
+                ViralPathFilter filter;
+                try {
+                    filter = new ViralPathFilter(inputFile.toPath(), nameGlob, includes, excludes, excludedPaths,
+                            Collections.singleton(DEFAULT_OUTPUT_DIR));
+                } catch (IllegalArgumentException e) {
+                    errors.add("invalid input file(s) or include/exclude pattern" + " [" + e.getMessage() + "]");
+                    return;
+                }
+                viralFileListMaker = new ViralFileListMaker(allFiles, name, ext, exact, filter,
+                        (inPlace ? ViralInPlaceJournal.JOURNAL_EXT : null), inputPaths);
+                if (changedPaths != null) {
+                    inputPaths.addAll(changedPaths);
+                    inputPaths.add(ViralFileListMaker.END_OF_PATHS);
+                } else {
+                    if (watch) {
+                        // registered before the walk, so that files created during the walk are not missed
+                        try {
+                            watcher = new ViralFileWatcher(inputFile.toPath(), recursive, viralFileListMaker);
+                        } catch (IOException e) {
+                            errors.add("could not watch input directory" + " [" + e.getMessage() + "]");
+                            return;
+                        }
+                    }
+                    walker = startWalker(viralFileListMaker, inputFile.toPath(),
+                            (recursive ? Integer.MAX_VALUE : 1), metrics);
+                }
+            } else {
+                if (!inPlace || !input.endsWith(ViralInPlaceJournal.JOURNAL_EXT)) {
+                    inputPaths.add(input);
+                }
+                inputPaths.add(ViralFileListMaker.END_OF_PATHS);
+            }
+            // tasks are reaped as they complete, so that a slow file does not keep the other threads idle, and their
+            // errors are reported in the input order
+            CompletionService<ViralCryptResult> completionService = (executor == null ? null
+                    : new ExecutorCompletionService<ViralCryptResult>(executor));
+            Map<Future<ViralCryptResult>, CryptTask> pendingTasks = new LinkedHashMap<Future<ViralCryptResult>,
+                    CryptTask>();
+            SortedMap<Integer, String> taskErrors = new TreeMap<Integer, String>();
+            int countSubmitted = 0;
+            String ipFilePath = takeInputPath(inputPaths);
+            while (ipFilePath != null || !pendingTasks.isEmpty()) {
+                ViralCryptResult result;
+                int index;
+                if (completionService == null) {
+                    index = countSubmitted++;
+                    result = new CryptTask(mode, metrics, ipFilePath,
+                            getOutputPath(ipFilePath, inputDirPath, outputDirPath), index).call();
+                    ipFilePath = takeInputPath(inputPaths);
+                } else {
+                    while (ipFilePath != null && pendingTasks.size() < threads * PENDING_TASKS_PER_THREAD) {
+                        CryptTask task = new CryptTask(mode, metrics, ipFilePath,
+                                getOutputPath(ipFilePath, inputDirPath, outputDirPath), countSubmitted++);
+                        pendingTasks.put(completionService.submit(task), task);
+                        ipFilePath = takeInputPath(inputPaths);
+                    }
+                    Future<ViralCryptResult> future;
+                    try {
+                        future = completionService.take();
+                    } catch (InterruptedException e) {
+                        // the pending tasks are reported as interrupted one by one
+                        Thread.currentThread().interrupt();
+                        future = pendingTasks.keySet().iterator().next();
+                    }
+                    CryptTask task = pendingTasks.remove(future);
+                    index = task.index;
+                    result = getTaskResult(future, task.ipFilePath, task.opFilePath);
+                }
+                if (result.isSuccess()) {
+                    countSuccess++;
+                    boolean resumed = false;
+                    if (resumeMode != null && !checkpointFailed) {
+                        try {
+                            resumed = resumeMode.complete(result);
+                        } catch (IOException e) {
+                            checkpointFailed = true;
+                            errors.add("could not write checkpoint" + " [" + e.getMessage() + "]");
+                        }
+                        if (resumed) {
+                            countResumed++;
+                        }
+                    }
+                    if (result.isSkipped() && !resumed) {
+                        countSkipped++;
+                    }
+                } else {
+                    taskErrors.put(index, result.getError());
+                }
+                totalInputFiles++;
+                if (verbose) {
+                    if (System.currentTimeMillis() - t >= 4000 && (ipFilePath != null || !pendingTasks.isEmpty())) {
+                        t = System.currentTimeMillis();
+                        int foundInputFiles = (viralFileListMaker == null ? 1 : viralFileListMaker.getCount());
+                        if (walker != null && walker.isAlive()) {
+                            console.println(String.format("Processed files: %d of %d found so far (%.2f mb/s)",
+                                    totalInputFiles, foundInputFiles, metrics.getBytesPerSecond() / MB));
+                        } else {
+                            console.println(String.format("Processed files: %d of %d (%.2f%%) (%.2f mb/s)",
+                                    totalInputFiles, foundInputFiles, (100.0 * totalInputFiles / foundInputFiles),
+                                    metrics.getBytesPerSecond() / MB));
+                        }
+                    }
+                }
+            }
+            errors.addAll(taskErrors.values());
+            boolean walkFailed = (viralFileListMaker != null && viralFileListMaker.getError() != null);
+            if (walkFailed) {
+                errors.add("error while walking input directory" + " [" + viralFileListMaker.getError().getMessage()
+                        + "]");
+            }
+            if (packWriter != null) {
+                try {
+                    packWriter.close();
+                } catch (IOException e) {
+                    errors.add("could not write index of pack: " + output + " [" + e.getMessage() + "]");
+                } finally {
+                    packWriter = null;
+                }
+            }
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close(!walkFailed && !checkpointFailed && countSuccess == totalInputFiles);
+                } catch (IOException e) {
+                    errors.add("could not write checkpoint" + " [" + e.getMessage() + "]");
+                } finally {
+                    checkpoint = null;
+                }
+            }
+            if (manifest != null) {
+                if (!walkFailed && changedPaths == null && incrementalMode != null) {
+                    countRemoved = incrementalMode.deleteRemovedOutputs(checksums, errors);
+                }
+                try {
+                    manifest.save();
+                } catch (IOException e) {
+                    errors.add("could not save manifest" + " [" + e.getMessage() + "]");
+                }
+            }
+            if (checksums != null && !verify) {
+                try {
+                    checksums.save();
+                } catch (IOException e) {
+                    errors.add("could not save checksums" + " [" + e.getMessage() + "]");
+                }
+            }
+            if (dedupeCache != null) {
+                try {
+                    dedupeCache.save();
+                } catch (IOException e) {
+                    errors.add("could not save dedupe cache" + " [" + e.getMessage() + "]");
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (walker != null) {
+                walker.interrupt();
+            }
+            unregisterMetrics(metricsName);
+            if (packWriter != null) {
+                packWriter.close();
+                packWriter = null;
+            }
+            if (checkpoint != null) {
+                checkpoint.close(false);
+                checkpoint = null;
             }
         }
         if (verbose) {
-            System.out.println("Process completed");
-            System.out.println(String.format("Successful processed files: %d of %d (%.2f%%)", countSuccess,
+            console.println("Process completed");
+            console.println(String.format("Successful processed files: %d of %d (%.2f%%)", countSuccess,
                     totalInputFiles, (100.0 * countSuccess / totalInputFiles)));
             if (countSuccess != totalInputFiles) {
-                System.out.println(
+                console.println(
                         String.format("Errorful processed files: %d of %d (%.2f%%)", (totalInputFiles - countSuccess),
                                 totalInputFiles, (100.0 * (totalInputFiles - countSuccess) / totalInputFiles)));
             }
-            System.out.println();
+            if (incremental) {
+                console.println(String.format("Skipped unchanged files: %d of %d (%.2f%%)", countSkipped,
+                        totalInputFiles, (100.0 * countSkipped / totalInputFiles)));
+                console.println(String.format("Deleted outputs of deleted input files: %d", countRemoved));
+            }
+            if (resume) {
+                console.println(String.format("Skipped files completed by the interrupted run: %d of %d (%.2f%%)",
+                        countResumed, totalInputFiles, (100.0 * countResumed / totalInputFiles)));
+            }
+            if (dedupeCache != null) {
+                console.println(String.format("Deduplicated files: %d of %d (%.2f%%)", dedupeCache.getHits(),
+                        totalInputFiles, (100.0 * dedupeCache.getHits() / totalInputFiles)));
+            }
+            console.println(String.format("Processed bytes: %d in %.2f s (%.2f mb/s)", metrics.getBytes(),
+                    (metrics.getElapsedMillis() / 1000.0), metrics.getBytesPerSecond() / MB));
+            console.println();
+        }
+        if (report != null) {
+            writeReport(metrics, countSuccess, (dedupeCache == null ? 0 : dedupeCache.getHits()));
+        }
+    }
+
+    /**
+     * Encrypts/decrypts the files created or modified in the input directory as they become stable, till the
+     * process is stopped.
+     */
+    private void watchInput() throws IOException {
+        printErrors();
+        errors.clear();
+        if (verbose) {
+            console.println("Watching input directory for new and modified files");
+            console.println();
+        }
+        try {
+            while (true) {
+                List<String> changedPaths = watcher.awaitChangedFiles();
+                processViralFileCrypt(changedPaths);
+                printErrors();
+                errors.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Lists the entries of the input pack, or extracts one entry or all the entries of the input pack.
+     */
+    private void processViralCryptPack() {
+        File packFile = new File(input).getAbsoluteFile();
+        if (!packFile.isFile()) {
+            errors.add("invalid input pack: " + input);
+            return;
+        }
+        int totalEntries = 0;
+        int countSuccess = 0;
+        try (ViralCryptEngine engine = new ViralCryptEngine(salt, bufferSize, 1);
+                ViralCryptPack viralCryptPack = ViralCryptPack.open(packFile, engine.getKernel())) {
+            List<ViralCryptPack.Entry> entries = viralCryptPack.getEntries();
+            if (list) {
+                for (ViralCryptPack.Entry entry : entries) {
+                    (workingDir == null ? System.out : console).println(String.format("%15d  %-24s  %s",
+                            entry.getLength(), FileTime.fromMillis(entry.getLastModified()), entry.getPath()));
+                }
+                return;
+            }
+            if (extractEntry != null) {
+                ViralCryptPack.Entry entry = viralCryptPack.getEntry(extractEntry.replace(FILE_SEP, "/"));
+                if (entry == null) {
+                    errors.add("entry not found in pack: " + extractEntry);
+                    return;
+                }
+                entries = Collections.singletonList(entry);
+            }
+            String outputDirPath = ("".equals(output) ? packFile.getParent() + FILE_SEP + DEFAULT_OUTPUT_DIR
+                    : new File(output).getAbsolutePath());
+            ByteBuffer byteBuf = engine.acquireBuffer();
+            try {
+                for (ViralCryptPack.Entry entry : entries) {
+                    String opFilePath = (extractEntry == null
+                            ? ViralCryptPack.getEntryOutputPath(outputDirPath, entry.getPath())
+                            : output);
+                    long start = System.nanoTime();
+                    ViralCryptResult result = (opFilePath == null
+                            ? ViralCryptResult.failure(entry.getPath(), outputDirPath,
+                                    "entry path is not relative to the pack: " + entry.getPath())
+                            : extractEntry(viralCryptPack, entry, opFilePath, byteBuf));
+                    engine.getMetrics().recordResult(result, System.nanoTime() - start);
+                    totalEntries++;
+                    if (result.isSuccess()) {
+                        countSuccess++;
+                    } else {
+                        errors.add(result.getError());
+                    }
+                }
+            } finally {
+                engine.releaseBuffer(byteBuf);
+            }
+            if (report != null) {
+                writeReport(engine.getMetrics(), countSuccess, 0);
+            }
+        } catch (IOException e) {
+            errors.add("could not read pack" + " [" + e.getMessage() + "]");
+            return;
+        }
+        if (verbose) {
+            console.println("Process completed");
+            console.println(String.format("Successful extracted entries: %d of %d (%.2f%%)", countSuccess,
+                    totalEntries, (100.0 * countSuccess / totalEntries)));
+            console.println();
         }
     }
 
-    private static void processOptions(String[] options) throws IOException {
+    private ViralCryptResult extractEntry(ViralCryptPack viralCryptPack, ViralCryptPack.Entry entry,
+            String opFilePath, ByteBuffer byteBuf) {
+        File opFile = new File(opFilePath);
+        if (!STREAM_PATH.equals(opFilePath)) {
+            opFile.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        long bytes = 0;
+        try (FileOutputStream opFos = (STREAM_PATH.equals(opFilePath) ? new FileOutputStream(FileDescriptor.out)
+                : new FileOutputStream(opFile)); FileChannel opChannel = opFos.getChannel()) {
+            bytes = viralCryptPack.extract(entry, opChannel, byteBuf);
+        } catch (FileNotFoundException e) {
+            return ViralCryptResult.failure(entry.getPath(), opFilePath,
+                    "could not create output file" + " [" + e.getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(entry.getPath(), opFilePath,
+                    "error while extracting entry" + " [" + e.getMessage() + "]");
+        }
+        if (!STREAM_PATH.equals(opFilePath)) {
+            opFile.setLastModified(entry.getLastModified());
+        }
+        return ViralCryptResult.success(entry.getPath(), opFilePath, bytes);
+    }
+
+    /**
+     * @return path resolved against the working directory of the client, if any
+     */
+    private String resolvePath(String path) {
+        if (workingDir == null || STREAM_PATH.equals(path) || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(workingDir, path).getPath();
+    }
+
+    private int parsePositiveInt(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void parseRange(String value) {
+        int indexOfSeparator = (value == null ? -1 : value.indexOf(':'));
+        if (indexOfSeparator == -1) {
+            return;
+        }
+        try {
+            long start = Long.parseLong(value.substring(0, indexOfSeparator));
+            long length = Long.parseLong(value.substring(indexOfSeparator + 1));
+            if (start >= 0 && length >= 0) {
+                rangeStart = start;
+                rangeLength = length;
+            }
+        } catch (NumberFormatException e) {
+            // range stays invalid
+        }
+    }
+
+    /**
+     * Runs ViralFileCrypt for the options as given on the command line.
+     *
+     * @return true if the run was completed without errors
+     */
+    boolean processOptions(String[] options) throws IOException {
         boolean flagHelp = true;
         boolean flagSalt = false;
         boolean flagInput = false;
         boolean flagOutput = false;
+        boolean flagThreads = false;
+        boolean flagBufferSize = false;
+        boolean flagConflict = false;
         for (int i = 0; i < options.length; i++) {
             switch (options[i]) {
                 case "-f":
@@ -445,7 +1344,7 @@ public class ViralFileCrypt {
                         errors.add("provide valid input");
                         break;
                     }
-                    input = options[i + 1];
+                    input = resolvePath(options[i + 1]);
                     flagInput = true;
                     i++;
                     break;
@@ -461,13 +1360,278 @@ public class ViralFileCrypt {
                         errors.add("provide valid output");
                         break;
                     }
-                    output = options[i + 1];
+                    output = resolvePath(options[i + 1]);
+                    i++;
+                    break;
+                case "-t":
+                case "--threads":
+                    flagHelp = false;
+                    if (flagThreads) {
+                        errors.add("provide option -t, --threads, -p or --parallel only once");
+                        break;
+                    }
+                    flagThreads = true;
+                    threads = parsePositiveInt(i + 1 < options.length ? options[i + 1] : null);
+                    if (threads < 1) {
+                        threads = 1;
+                        errors.add("provide number of threads as a positive number");
+                        break;
+                    }
+                    i++;
+                    break;
+                case "-p":
+                case "--parallel":
+                    flagHelp = false;
+                    if (flagThreads) {
+                        errors.add("provide option -t, --threads, -p or --parallel only once");
+                        break;
+                    }
+                    flagThreads = true;
+                    threads = Runtime.getRuntime().availableProcessors();
+                    break;
+                case "-b":
+                case "--buffer-size":
+                    flagHelp = false;
+                    if (flagBufferSize) {
+                        errors.add("provide option -b or --buffer-size only once");
+                        break;
+                    }
+                    flagBufferSize = true;
+                    int bufferSizeKb = parsePositiveInt(i + 1 < options.length ? options[i + 1] : null);
+                    if (bufferSizeKb < 1 || bufferSizeKb > MAX_BUFFER_SIZE_KB) {
+                        errors.add("provide buffer size in kb as a positive number (at most " + MAX_BUFFER_SIZE_KB
+                                + ")");
+                        break;
+                    }
+                    bufferSize = bufferSizeKb * 1024;
+                    i++;
+                    break;
+                case "--async-io":
+                    flagHelp = false;
+                    if (asyncBuffers != 0) {
+                        errors.add("provide option --async-io only once");
+                        break;
+                    }
+                    asyncBuffers = parsePositiveInt(i + 1 < options.length ? options[i + 1] : null);
+                    if (asyncBuffers < 2 || asyncBuffers > MAX_ASYNC_BUFFERS) {
+                        asyncBuffers = 0;
+                        errors.add("provide number of asynchronous buffers as a number (at least 2, at most "
+                                + MAX_ASYNC_BUFFERS + ")");
+                        break;
+                    }
                     i++;
                     break;
+                case "--report":
+                    flagHelp = false;
+                    if (report != null) {
+                        errors.add("provide option --report only once");
+                        break;
+                    }
+                    if (i + 1 >= options.length || options[i + 1] == null || "".equals(options[i + 1])) {
+                        errors.add("provide valid report file");
+                        break;
+                    }
+                    report = resolvePath(options[i + 1]);
+                    i++;
+                    break;
+                case "--range":
+                    flagHelp = false;
+                    if (rangeStart >= 0) {
+                        errors.add("provide option --range only once");
+                        break;
+                    }
+                    parseRange(i + 1 < options.length ? options[i + 1] : null);
+                    if (rangeStart < 0) {
+                        errors.add("provide range as <start>:<length> with non-negative numbers of bytes");
+                        flagConflict = true;
+                        break;
+                    }
+                    i++;
+                    break;
+                case "--pack":
+                    flagHelp = false;
+                    pack = true;
+                    break;
+                case "--list":
+                    flagHelp = false;
+                    list = true;
+                    break;
+                case "--extract":
+                    flagHelp = false;
+                    if (extractEntry != null) {
+                        errors.add("provide option --extract only once");
+                        break;
+                    }
+                    if (i + 1 >= options.length || options[i + 1] == null || "".equals(options[i + 1])) {
+                        errors.add("provide valid entry to extract");
+                        flagConflict = true;
+                        break;
+                    }
+                    extractEntry = options[i + 1];
+                    i++;
+                    break;
+                case "--unpack":
+                    flagHelp = false;
+                    unpack = true;
+                    break;
+                case "--include":
+                case "--exclude":
+                    flagHelp = false;
+                    if (i + 1 >= options.length || options[i + 1] == null || "".equals(options[i + 1])) {
+                        errors.add("provide valid pattern with option " + options[i]);
+                        flagConflict = true;
+                        break;
+                    }
+                    ("--include".equals(options[i]) ? includes : excludes).add(options[i + 1]);
+                    i++;
+                    break;
+                case "--in-place":
+                    flagHelp = false;
+                    inPlace = true;
+                    break;
+                case "--rollback":
+                    flagHelp = false;
+                    rollback = true;
+                    break;
+                case "--incremental":
+                    flagHelp = false;
+                    incremental = true;
+                    break;
+                case "--incremental-hash":
+                    flagHelp = false;
+                    incrementalHash = true;
+                    break;
+                case "--resume":
+                    flagHelp = false;
+                    resume = true;
+                    break;
+                case "--watch":
+                    flagHelp = false;
+                    watch = true;
+                    break;
+                case "--checksum":
+                    flagHelp = false;
+                    if (checksum != null) {
+                        errors.add("provide option --checksum only once");
+                        break;
+                    }
+                    checksum = (i + 1 < options.length && options[i + 1] != null ? options[i + 1] : "");
+                    try {
+                        ViralCryptChecksums.newDigest(checksum);
+                    } catch (IllegalArgumentException e) {
+                        errors.add("provide checksum as crc32, crc32c or sha256 [" + e.getMessage() + "]");
+                        flagConflict = true;
+                        break;
+                    }
+                    i++;
+                    break;
+                case "--verify":
+                    flagHelp = false;
+                    verify = true;
+                    break;
+                case "--dedupe":
+                    flagHelp = false;
+                    dedupe = true;
+                    break;
+                case "--dedupe-links":
+                    flagHelp = false;
+                    dedupeLinks = true;
+                    break;
             }
         }
-        if (flagSalt && flagInput) {
-            processViralFileCrypt();
+        // threads of files and of their regions share this budget
+        threads = Math.min(threads, MAX_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+        if ((STREAM_PATH.equals(input) || rangeStart >= 0 || extractEntry != null) && !flagOutput) {
+            output = STREAM_PATH;
+        }
+        if (workingDir != null && (STREAM_PATH.equals(input) || STREAM_PATH.equals(output))) {
+            errors.add("standard input/output is not supported with --client, provide input and output file(s)");
+            flagConflict = true;
+        } else if (STREAM_PATH.equals(output)) {
+            console = System.err;
+        }
+        if (workingDir != null && watch) {
+            errors.add("option --watch is not supported with --client, run it without the daemon");
+            flagConflict = true;
+        }
+        if (inPlace && STREAM_PATH.equals(input)) {
+            errors.add("provide option --in-place only with input file(s)");
+            flagConflict = true;
+        }
+        if (inPlace && flagOutput) {
+            errors.add("provide either option -o or --output or option --in-place");
+            flagConflict = true;
+        }
+        if (rollback && !inPlace) {
+            errors.add("provide option --rollback only with option --in-place");
+            flagConflict = true;
+        }
+        if (incremental && (inPlace || STREAM_PATH.equals(input) || STREAM_PATH.equals(output))) {
+            errors.add("provide option --incremental only with input file(s) and output file(s)");
+            flagConflict = true;
+        }
+        if (rangeStart >= 0 && (inPlace || incremental || STREAM_PATH.equals(input))) {
+            errors.add("provide option --range only with an input file and without --in-place or --incremental");
+            flagConflict = true;
+        }
+        boolean packMode = (pack || list || extractEntry != null || unpack);
+        if ((pack ? 1 : 0) + (list ? 1 : 0) + (extractEntry != null ? 1 : 0) + (unpack ? 1 : 0) > 1) {
+            errors.add("provide only one of options --pack, --list, --extract or --unpack");
+            flagConflict = true;
+        }
+        if (packMode && (inPlace || incremental || rangeStart >= 0 || STREAM_PATH.equals(input))) {
+            errors.add("provide options --pack, --list, --extract or --unpack only with input file(s)"
+                    + " and without --in-place, --incremental or --range");
+            flagConflict = true;
+        }
+        if ((pack || unpack) && STREAM_PATH.equals(output)) {
+            errors.add("provide options --pack or --unpack only with output file/directory");
+            flagConflict = true;
+        }
+        if (resume && (inPlace || packMode || rangeStart >= 0 || STREAM_PATH.equals(input)
+                || STREAM_PATH.equals(output))) {
+            errors.add("provide option --resume only with input files and output directory"
+                    + " and without --in-place, --range or pack options");
+            flagConflict = true;
+        }
+        if (watch && (inPlace || packMode || rangeStart >= 0 || resume || STREAM_PATH.equals(input)
+                || STREAM_PATH.equals(output))) {
+            errors.add("provide option --watch only with input files and output directory"
+                    + " and without --in-place, --range, --resume or pack options");
+            flagConflict = true;
+        }
+        if (checksum != null && (inPlace || packMode || rangeStart >= 0 || STREAM_PATH.equals(input)
+                || STREAM_PATH.equals(output))) {
+            errors.add("provide option --checksum only with input file(s) and output file(s)"
+                    + " and without --in-place, --range or pack options");
+            flagConflict = true;
+        }
+        if (dedupe && (inPlace || packMode || rangeStart >= 0 || verify || STREAM_PATH.equals(input)
+                || STREAM_PATH.equals(output))) {
+            errors.add("provide option --dedupe only with input file(s) and output file(s)"
+                    + " and without --in-place, --range, --verify or pack options");
+            flagConflict = true;
+        }
+        if (dedupeLinks && !dedupe) {
+            errors.add("provide option --dedupe-links only with option --dedupe");
+            flagConflict = true;
+        }
+        if (verify && (flagOutput || inPlace || packMode || rangeStart >= 0 || incremental || resume || watch
+                || checksum != null || STREAM_PATH.equals(input))) {
+            errors.add("provide option --verify only with input file(s), without output and other modes");
+            flagConflict = true;
+        }
+        if (incrementalHash && !incremental) {
+            errors.add("provide option --incremental-hash only with option --incremental");
+            flagConflict = true;
+        }
+        if (flagSalt && flagInput && !flagConflict && (list || extractEntry != null || unpack)) {
+            processViralCryptPack();
+        } else if (flagSalt && flagInput && !flagConflict) {
+            processViralFileCrypt(null);
+            if (watcher != null) {
+                watchInput();
+            }
         } else if (flagHelp) {
             printHelp();
         } else {
@@ -482,10 +1646,20 @@ public class ViralFileCrypt {
         if (!flagHelp && errors != null && errors.size() > 0) {
             printErrors();
         }
+        return errors == null || errors.isEmpty();
     }
 
     public static void main(String[] args) throws IOException {
-        processOptions(args);
+        if (args.length > 0 && "--daemon".equals(args[0])) {
+            ViralFileCryptDaemon.serve(args, System.out);
+        } else if (args.length > 0 && "--client".equals(args[0])) {
+            int status = ViralFileCryptDaemon.runClient(Arrays.copyOfRange(args, 1, args.length), System.out);
+            if (status != 0) {
+                System.exit(status);
+            }
+        } else {
+            new ViralFileCrypt(System.out).processOptions(args);
+        }
     }
 
 }
@@ -0,0 +1,275 @@
+package com.virallalakia.crypt.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived ViralFileCrypt process which runs the jobs of its clients, so that a job does not pay for the JVM
+ * startup and the warmup of the engine. The daemon listens on a loopback port, the port and a random token are
+ * written to ~/.vfc-daemon (readable only by the user) and a client has to send the token with every job. Jobs run
+ * in parallel, each job gets its own ViralFileCrypt with its own engine and metrics, connections beyond the
+ * maximum number of jobs are rejected.
+ *
+ * <pre>
+ * request  : lines of VFC1 &lt;token&gt;, working directory, number of options, then one option per line
+ * response : output of the job (logs, errors, help), then a status line of NUL, VFC1 EXIT and 0 if the job was
+ *            completed without errors or 1 otherwise, the connection is closed when the job is completed
+ * </pre>
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralFileCryptDaemon {
+
+    static final String DAEMON_FILE = ".vfc-daemon";
+
+    private static final String PROTOCOL = "VFC1";
+    /** starts with NUL, which no other output line starts with as it is not allowed in paths */
+    private static final String STATUS_PREFIX = "\u0000" + PROTOCOL + " EXIT ";
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_OPTIONS = 1024;
+    private static final int MAX_JOBS = 16;
+
+    private ViralFileCryptDaemon() {
+    }
+
+    private static File getDaemonFile() {
+        return new File(System.getProperty("user.home"), DAEMON_FILE);
+    }
+
+    /**
+     * Runs the daemon till the process is stopped.
+     *
+     * @param options --daemon followed by an optional port, any free port is used if not provided
+     */
+    static void serve(String[] options, PrintStream console) throws IOException {
+        int port = 0;
+        if (options.length > 2 || (options.length == 2 && (port = parsePort(options[1])) < 0)) {
+            console.println("Error: provide option --daemon alone or with a port number [--daemon <port>]");
+            return;
+        }
+        serve(new ServerSocket(port, 50, InetAddress.getLoopbackAddress()), console);
+    }
+
+    /**
+     * Runs the daemon on the server socket till the process is stopped or the server socket is closed.
+     */
+    static void serve(ServerSocket server, PrintStream console) throws IOException {
+        byte[] tokenBytes = new byte[16];
+        new SecureRandom().nextBytes(tokenBytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : tokenBytes) {
+            token.append(String.format("%02x", b & 0xFF));
+        }
+        final File daemonFile = getDaemonFile();
+        writeDaemonFile(daemonFile, server.getLocalPort() + " " + token + "\n");
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                daemonFile.delete();
+            }
+
+        });
+        console.println("ViralFileCrypt daemon listening on " + server.getInetAddress().getHostAddress() + ":"
+                + server.getLocalPort() + " (" + daemonFile.getPath() + ")");
+        // connections are not queued, so that a flood of connections cannot create threads or hold sockets
+        ExecutorService jobs = new ThreadPoolExecutor(0, MAX_JOBS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                try {
+                    jobs.execute(new Job(socket, token.toString(), console));
+                } catch (RejectedExecutionException e) {
+                    reject(socket);
+                }
+            }
+        } finally {
+            jobs.shutdownNow();
+            server.close();
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write(("Error: ViralFileCrypt daemon is busy with " + MAX_JOBS
+                    + " jobs, try again later\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // client is gone, nothing to report
+        }
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            return (port >= 0 && port <= 65535 ? port : -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeDaemonFile(File daemonFile, String content) throws IOException {
+        daemonFile.delete();
+        try {
+            Files.createFile(daemonFile.toPath(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(daemonFile.toPath());
+        }
+        Files.write(daemonFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs the job of one client connection.
+     */
+    private static class Job implements Runnable {
+
+        private final Socket socket;
+        private final String token;
+        private final PrintStream console;
+
+        Job(Socket socket, String token, PrintStream console) {
+            this.socket = socket;
+            this.token = token;
+            this.console = console;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket) {
+                s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                PrintStream out = new PrintStream(s.getOutputStream(), true, "UTF-8");
+                String hello = reader.readLine();
+                byte[] expected = (PROTOCOL + " " + token).getBytes(StandardCharsets.UTF_8);
+                if (hello == null || !MessageDigest.isEqual(expected, hello.getBytes(StandardCharsets.UTF_8))) {
+                    out.println("Error: invalid daemon token");
+                    return;
+                }
+                String workingDir = reader.readLine();
+                String[] options = readOptions(reader);
+                if (workingDir == null || options == null) {
+                    out.println("Error: invalid request");
+                    return;
+                }
+                s.setSoTimeout(0);
+                boolean success = false;
+                try {
+                    success = new ViralFileCrypt(out, new File(workingDir)).processOptions(options);
+                } catch (IOException | RuntimeException e) {
+                    out.println("Error: " + e);
+                }
+                out.println(STATUS_PREFIX + (success ? 0 : 1));
+                out.flush();
+            } catch (IOException e) {
+                console.println("Error while serving a client [" + e.getMessage() + "]");
+            }
+        }
+
+        private String[] readOptions(BufferedReader reader) throws IOException {
+            String countLine = reader.readLine();
+            int count;
+            try {
+                count = (countLine == null ? -1 : Integer.parseInt(countLine));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (count < 0 || count > MAX_OPTIONS) {
+                return null;
+            }
+            String[] options = new String[count];
+            for (int i = 0; i < count; i++) {
+                options[i] = reader.readLine();
+                if (options[i] == null) {
+                    return null;
+                }
+            }
+            return options;
+        }
+
+    }
+
+    /**
+     * Forwards the options to the daemon and prints the output of the job as it is streamed back.
+     *
+     * @return exit status of the job, 0 if it was completed without errors, 1 otherwise
+     */
+    static int runClient(String[] options, PrintStream console) throws IOException {
+        File daemonFile = getDaemonFile();
+        if (!daemonFile.isFile()) {
+            console.println("Error: ViralFileCrypt daemon is not running, start it with --daemon");
+            return 1;
+        }
+        String[] daemon = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.UTF_8).trim()
+                .split(" ");
+        int port = (daemon.length == 2 ? parsePort(daemon[0]) : -1);
+        if (port < 0) {
+            console.println("Error: invalid daemon file: " + daemonFile.getPath());
+            return 1;
+        }
+        for (String option : options) {
+            if (option.indexOf('\n') != -1 || option.indexOf('\r') != -1) {
+                console.println("Error: options with line breaks are not supported with --client");
+                return 1;
+            }
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            writer.write(PROTOCOL + " " + daemon[1] + "\n");
+            writer.write(new File("").getAbsolutePath() + "\n");
+            writer.write(options.length + "\n");
+            for (String option : options) {
+                writer.write(option + "\n");
+            }
+            writer.flush();
+            socket.shutdownOutput();
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // a line which looks like the status line is printed once a line follows it, only the last line is the
+            // status of the job
+            String statusLine = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (statusLine != null) {
+                    console.println(statusLine);
+                    statusLine = null;
+                }
+                if (line.startsWith(STATUS_PREFIX)) {
+                    statusLine = line;
+                } else {
+                    console.println(line);
+                }
+            }
+            return ((STATUS_PREFIX + 0).equals(statusLine) ? 0 : 1);
+        } catch (IOException e) {
+            console.println("Error: could not connect to ViralFileCrypt daemon on port " + port + " ["
+                    + e.getMessage() + "]");
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.virallalakia.crypt.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the input directory (and its sub-directories, if recursive) for created and modified files, so that only
+ * those files are encrypted/decrypted instead of walking the whole directory again. A file is reported once it is
+ * stable, i.e. no event was received for it and its size and last modified time did not change for a second.
+ * Directories excluded by the ViralFileListMaker are not watched and only its matching files are reported.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralFileWatcher implements Closeable {
+
+    static final long DEBOUNCE_MILLIS = 1000;
+
+    /**
+     * Last event of a changed file and its attributes when it was last checked.
+     */
+    private static class PendingFile {
+
+        private long lastEvent;
+        private long size = -1;
+        private long lastModified = -1;
+
+    }
+
+    private final WatchService watchService;
+    private final ViralFileCrypt.ViralFileListMaker viralFileListMaker;
+    private final boolean recursive;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<Path, PendingFile>();
+
+    /**
+     * Registers the directory (and its sub-directories, if recursive) to be watched.
+     *
+     * @param viralFileListMaker matcher of the files to be reported and of the directories not to be watched
+     */
+    ViralFileWatcher(Path dir, boolean recursive, ViralFileCrypt.ViralFileListMaker viralFileListMaker)
+            throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.viralFileListMaker = viralFileListMaker;
+        this.recursive = recursive;
+        try {
+            register(dir, false);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Registers the directory and, if recursive, its sub-directories which are not excluded.
+     *
+     * @param addFiles if true, the files already in the directories are added as changed files, e.g. files created
+     *        in a new directory before it was registered
+     */
+    private void register(Path dir, final boolean addFiles) throws IOException {
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), (recursive ? Integer.MAX_VALUE : 1),
+                new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes atts)
+                            throws IOException {
+                        if (viralFileListMaker.isExcludedDir(path)) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        watchedDirs.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY), path);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes atts) {
+                        if (addFiles && atts.isRegularFile()) {
+                            addChangedFile(path);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                });
+    }
+
+    private void addChangedFile(Path path) {
+        PendingFile pendingFile = pendingFiles.get(path);
+        if (pendingFile == null) {
+            pendingFile = new PendingFile();
+            pendingFiles.put(path, pendingFile);
+        }
+        pendingFile.lastEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits till at least one matching file is created or modified and is stable.
+     *
+     * @return absolute paths of the stable matching files, in the order they were changed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<String> awaitChangedFiles() throws InterruptedException {
+        while (true) {
+            WatchKey key = (pendingFiles.isEmpty() ? watchService.take()
+                    : watchService.poll(DEBOUNCE_MILLIS / 4, TimeUnit.MILLISECONDS));
+            while (key != null) {
+                processEvents(key);
+                key = watchService.poll();
+            }
+            List<String> changedFiles = pollStableFiles();
+            if (!changedFiles.isEmpty()) {
+                return changedFiles;
+            }
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, all the files of the watched directories are checked again
+                for (Path watchedDir : new ArrayList<Path>(watchedDirs.values())) {
+                    addFiles(watchedDir);
+                }
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        register(path, true);
+                    } catch (IOException e) {
+                        // directory deleted or not readable, its files are not reported
+                    }
+                }
+            } else {
+                addChangedFile(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private void addFiles(Path dir) {
+        try {
+            Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes atts) {
+                    if (atts.isRegularFile()) {
+                        addChangedFile(path);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+            });
+        } catch (IOException e) {
+            // directory deleted or not readable, its files are not reported
+        }
+    }
+
+    /**
+     * Checks the changed files without any event in the last second, a file is stable if its size and last modified
+     * time are the same as the last time it was checked.
+     */
+    private List<String> pollStableFiles() {
+        List<String> stableFiles = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            PendingFile pendingFile = entry.getValue();
+            if (now - pendingFile.lastEvent < DEBOUNCE_MILLIS) {
+                continue;
+            }
+            BasicFileAttributes atts;
+            try {
+                atts = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                iterator.remove();
+                continue;
+            }
+            long lastModified = atts.lastModifiedTime().toMillis();
+            if (atts.size() != pendingFile.size || lastModified != pendingFile.lastModified) {
+                pendingFile.size = atts.size();
+                pendingFile.lastModified = lastModified;
+                pendingFile.lastEvent = now;
+                continue;
+            }
+            iterator.remove();
+            if (viralFileListMaker.isMatching(entry.getKey(), atts)) {
+                stableFiles.add(entry.getKey().toAbsolutePath().toString());
+            }
+        }
+        return stableFiles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+}
@@ -0,0 +1,343 @@
+package com.virallalakia.crypt.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-recovery journal of a file being encrypted/decrypted in place. Before a chunk is overwritten, the CRC32 of
+ * every block of 512 bytes of the chunk is journaled instead of the bytes themselves, so the journal adds less than
+ * 1% to the write traffic. As the transform is its own inverse, an interrupted run restores the chunk in flight by
+ * transforming back every block which does not match its checksum any more, and resumes or rolls back from there.
+ * The journal has two record slots which are written alternately, so a torn write of the latest record always
+ * leaves the previous record intact. Once the file is processed, the journal is cut down to a completion record.
+ *
+ * <pre>
+ * header : magic (int), version (int), salt fingerprint (long), file size (long), chunk size (int)
+ * record : sequence (long), state (byte), position (long), length (int), CRC32 of every block of the chunk (int),
+ *          CRC32 of the record (int)
+ * </pre>
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralInPlaceJournal implements Closeable {
+
+    static final String JOURNAL_EXT = ".vfcj";
+
+    /** chunk [position, position + length) is in flight, chunks before it are already processed */
+    static final byte STATE_FORWARD = 0;
+    /** chunk [position, position + length) is in flight while rolling back, chunks after it are already restored */
+    static final byte STATE_BACKWARD = 1;
+    /** all the chunks of the file are processed */
+    static final byte STATE_COMPLETE = 2;
+
+    /** size of the blocks with a checksum, a block is written to the storage device at once (a sector) */
+    static final int BLOCK_SIZE = 512;
+
+    private static final int MAGIC = 0x5646434A; // VFCJ
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 8 + 4;
+    private static final int RECORD_TRAILER_SIZE = 4;
+
+    static class Record {
+
+        private byte state;
+        private long position;
+        private int length;
+        private int[] blockChecksums;
+
+        public Record(byte state, long position, int length, int[] blockChecksums) {
+            super();
+            this.state = state;
+            this.position = position;
+            this.length = length;
+            this.blockChecksums = blockChecksums;
+        }
+
+        public byte getState() {
+            return state;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int[] getBlockChecksums() {
+            return blockChecksums;
+        }
+
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final ByteBuffer slot;
+    private final int[] blockChecksums;
+    private final CRC32 blockCrc = new CRC32();
+    private int chunkLength;
+    private long sequence;
+
+    private ViralInPlaceJournal(File file, RandomAccessFile raf, int chunkSize) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.chunkSize = chunkSize;
+        this.blockChecksums = new int[getBlockCount(chunkSize)];
+        this.slot = ByteBuffer.allocate(getSlotSize());
+    }
+
+    static File getJournalFile(File dataFile) {
+        return new File(dataFile.getPath() + JOURNAL_EXT);
+    }
+
+    /**
+     * Creates a new journal for the data file, an existing journal is overwritten.
+     */
+    static ViralInPlaceJournal create(File dataFile, long fingerprint, long size, int chunkSize)
+            throws IOException {
+        File file = getJournalFile(dataFile);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putLong(size).putInt(chunkSize).flip();
+            writeFully(raf.getChannel(), header, 0);
+            raf.getChannel().force(true);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return new ViralInPlaceJournal(file, raf, chunkSize);
+    }
+
+    /**
+     * Opens the existing journal of the data file, it must have been created with the same salt and the same file
+     * size, the chunk size is the one it was created with.
+     */
+    static ViralInPlaceJournal open(File dataFile, long fingerprint, long size) throws IOException {
+        File file = getJournalFile(dataFile);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        int chunkSize;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(raf.getChannel(), header, 0);
+            header.flip();
+            if (header.remaining() != HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("invalid journal: " + file.getPath());
+            }
+            if (header.getLong() != fingerprint) {
+                throw new IOException("journal was created with a different salt: " + file.getPath());
+            }
+            if (header.getLong() != size) {
+                throw new IOException("journal was created for a different file size: " + file.getPath());
+            }
+            chunkSize = header.getInt();
+            if (chunkSize <= 0) {
+                throw new IOException("invalid journal: " + file.getPath());
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return new ViralInPlaceJournal(file, raf, chunkSize);
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return latest valid record of the journal, null if there is no valid record
+     */
+    Record recover() throws IOException {
+        Record latest = null;
+        long latestSequence = -1;
+        for (int i = 0; i < 2; i++) {
+            slot.clear();
+            readFully(channel, slot, HEADER_SIZE + (long) i * getSlotSize());
+            slot.flip();
+            if (slot.remaining() < RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE) {
+                continue;
+            }
+            long recordSequence = slot.getLong();
+            byte state = slot.get();
+            long position = slot.getLong();
+            int length = slot.getInt();
+            if (length < 0 || length > chunkSize) {
+                continue;
+            }
+            int recordSize = RECORD_HEADER_SIZE + 4 * getBlockCount(length);
+            if (slot.limit() < recordSize + RECORD_TRAILER_SIZE) {
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(slot.array(), 0, recordSize);
+            if ((int) crc.getValue() != slot.getInt(recordSize) || recordSequence <= latestSequence) {
+                continue;
+            }
+            int[] checksums = new int[getBlockCount(length)];
+            for (int j = 0; j < checksums.length; j++) {
+                checksums[j] = slot.getInt();
+            }
+            latestSequence = recordSequence;
+            latest = new Record(state, position, length, checksums);
+        }
+        sequence = latestSequence + 1;
+        return latest;
+    }
+
+    /**
+     * Restores the chunk in flight of the record to the bytes it had before it was overwritten: every block which
+     * does not match its checksum is transformed back, and must then match it. The restored blocks are forced to the
+     * storage device before returning.
+     *
+     * @throws IOException if a block matches its checksum neither as it is nor transformed back
+     */
+    void restore(Record record, FileChannel dataChannel, ViralCryptKernel kernel) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        CRC32 crc = new CRC32();
+        int[] checksums = record.getBlockChecksums();
+        long end = record.getPosition() + record.getLength();
+        for (int i = 0; i < checksums.length; i++) {
+            long position = record.getPosition() + (long) i * BLOCK_SIZE;
+            block.clear();
+            block.limit((int) Math.min(BLOCK_SIZE, end - position));
+            readFully(dataChannel, block, position);
+            block.flip();
+            if (checksum(crc, block) == checksums[i]) {
+                continue;
+            }
+            kernel.crypt(block, position);
+            if (checksum(crc, block) != checksums[i]) {
+                throw new IOException("chunk in flight could not be restored at position " + position + ": "
+                        + file.getPath());
+            }
+            writeFully(dataChannel, block, position);
+        }
+        dataChannel.force(false);
+    }
+
+    private static int checksum(CRC32 crc, ByteBuffer block) {
+        crc.reset();
+        crc.update(block.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Starts the checksums of the next chunk to be recorded.
+     */
+    void beginChunk() {
+        blockCrc.reset();
+        chunkLength = 0;
+    }
+
+    /**
+     * Updates the checksums of the chunk with the remaining bytes of the data, which follow the bytes of the previous
+     * updates in the chunk, without changing its position.
+     */
+    void update(ByteBuffer data) {
+        ByteBuffer blockData = data.duplicate();
+        int limit = blockData.limit();
+        while (blockData.hasRemaining()) {
+            int count = Math.min(blockData.remaining(), BLOCK_SIZE - chunkLength % BLOCK_SIZE);
+            blockData.limit(blockData.position() + count);
+            blockCrc.update(blockData);
+            blockData.limit(limit);
+            chunkLength += count;
+            if (chunkLength % BLOCK_SIZE == 0) {
+                blockChecksums[chunkLength / BLOCK_SIZE - 1] = (int) blockCrc.getValue();
+                blockCrc.reset();
+            }
+        }
+    }
+
+    /**
+     * Writes a record with the checksums of the chunk updated since beginChunk, and forces it to the storage device
+     * before returning.
+     */
+    void record(byte state, long position) throws IOException {
+        if (chunkLength % BLOCK_SIZE != 0) {
+            blockChecksums[chunkLength / BLOCK_SIZE] = (int) blockCrc.getValue();
+        }
+        slot.clear();
+        slot.putLong(sequence).put(state).putLong(position).putInt(chunkLength);
+        for (int i = 0; i < getBlockCount(chunkLength); i++) {
+            slot.putInt(blockChecksums[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, slot.position());
+        slot.putInt((int) crc.getValue());
+        slot.flip();
+        writeFully(channel, slot, HEADER_SIZE + (sequence % 2) * getSlotSize());
+        channel.force(false);
+        sequence++;
+    }
+
+    /**
+     * Records the file as completed and truncates the journal to that record.
+     */
+    void complete(long size) throws IOException {
+        beginChunk();
+        record(STATE_COMPLETE, size);
+        if (sequence % 2 == 0) {
+            // the completion record was written to the second slot, it is written to the first slot too, so that the
+            // journal can be truncated to the first slot
+            record(STATE_COMPLETE, size);
+        }
+        channel.truncate(HEADER_SIZE + RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE);
+        channel.force(true);
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("could not delete journal: " + file.getPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private static int getBlockCount(int length) {
+        return (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private int getSlotSize() {
+        return RECORD_HEADER_SIZE + 4 * getBlockCount(chunkSize) + RECORD_TRAILER_SIZE;
+    }
+
+    static int readFully(FileChannel channel, ByteBuffer byteBuf, long position) throws IOException {
+        int bytesRead = 0;
+        while (byteBuf.hasRemaining()) {
+            int count = channel.read(byteBuf, position + bytesRead);
+            if (count == -1) {
+                break;
+            }
+            bytesRead += count;
+        }
+        return bytesRead;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer byteBuf, long position) throws IOException {
+        long bytesWritten = 0;
+        while (byteBuf.hasRemaining()) {
+            bytesWritten += channel.write(byteBuf, position + bytesWritten);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * With --in-place, overwrites the input files and deletes the journal of every file once it is processed. In a
+ * multi-file run the completed files are journaled in the checkpoint of the input directory first, so that the
+ * files completed by an interrupted run are neither processed twice nor left out of a rollback.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralInPlaceMode implements ViralCryptMode {
+
+    private final ViralCryptEngine engine;
+    private final boolean rollback;
+    private final ViralCryptCheckpoint checkpoint;
+    private final String inputDirPath;
+
+    /**
+     * @param rollback if true, the input files are restored using their journals
+     * @param checkpoint checkpoint of a multi-file run, null for a single input file
+     * @param inputDirPath input directory, paths of the input files are journaled relative to it
+     */
+    ViralInPlaceMode(ViralCryptEngine engine, boolean rollback, ViralCryptCheckpoint checkpoint,
+            String inputDirPath) {
+        this.engine = engine;
+        this.rollback = rollback;
+        this.checkpoint = checkpoint;
+        this.inputDirPath = inputDirPath;
+    }
+
+    /**
+     * Skips the input file completed by the interrupted run, otherwise processes it, journals it as completed and
+     * deletes its journal. With rollback, the file is restored using its journal, which is then deleted.
+     */
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        if (rollback) {
+            return engine.cryptFileInPlace(ipFilePath, true);
+        }
+        String ipRelativePath = (checkpoint == null ? null : ViralFileCrypt.getRelativePath(inputDirPath,
+                ipFilePath));
+        if (checkpoint != null && checkpoint.isCompleted(ipRelativePath)) {
+            // the journal is left only if the interrupted run stopped right before deleting it
+            return deleteJournal(ViralCryptResult.skipped(ipFilePath, ipFilePath));
+        }
+        ViralCryptResult result = engine.cryptFileInPlace(ipFilePath, false);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        if (checkpoint != null) {
+            try {
+                checkpoint.complete(ipRelativePath);
+                checkpoint.sync();
+            } catch (IOException e) {
+                return ViralCryptResult.failure(ipFilePath, ipFilePath,
+                        "could not write checkpoint" + " [" + e.getMessage() + "]");
+            }
+        }
+        return deleteJournal(result);
+    }
+
+    private ViralCryptResult deleteJournal(ViralCryptResult result) {
+        if (!engine.deleteInPlaceJournal(result.getInputPath())) {
+            return ViralCryptResult.failure(result.getInputPath(), result.getInputPath(),
+                    "could not delete journal of file: " + result.getInputPath());
+        }
+        return result;
+    }
+
+    /**
+     * Before a rollback, journals a completion record for every file completed by the interrupted run and deletes
+     * the checkpoint, so that the completed files are restored like the files in flight, and a rollback interrupted
+     * in turn does not restore a file twice.
+     */
+    void journalCompletedFiles() throws IOException {
+        for (String ipRelativePath : checkpoint.getCompletedPaths()) {
+            engine.journalCompletedInPlace(new File(inputDirPath, ipRelativePath).getPath());
+        }
+        checkpoint.close(true);
+    }
+
+}
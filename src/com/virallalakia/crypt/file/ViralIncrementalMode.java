@@ -0,0 +1,157 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * With --incremental, encrypts/decrypts only the input files changed since the last run according to the manifest,
+ * and deletes the output files of the input files deleted since the last run.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralIncrementalMode implements ViralCryptMode {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final ViralCryptEngine engine;
+    private final ViralCryptMode next;
+    private final ViralCryptManifest manifest;
+    private final String inputDirPath;
+    private final String manifestDirPath;
+    private final boolean hash;
+
+    /**
+     * @param next mode to which the changed files are passed
+     * @param inputDirPath input directory, paths of the input files are kept relative to it
+     * @param manifestDirPath directory of the manifest, paths of the output files are kept relative to it
+     * @param hash if true, files with only a different last modified time are skipped if their hash is not changed
+     */
+    ViralIncrementalMode(ViralCryptEngine engine, ViralCryptMode next, ViralCryptManifest manifest,
+            String inputDirPath, String manifestDirPath, boolean hash) {
+        this.engine = engine;
+        this.next = next;
+        this.manifest = manifest;
+        this.inputDirPath = inputDirPath;
+        this.manifestDirPath = manifestDirPath;
+        this.hash = hash;
+    }
+
+    ViralCryptManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Encrypts/decrypts the input file only if it is changed since the last run according to the manifest, the
+     * manifest is updated with the input file if it is processed successfully.
+     */
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        String ipRelativePath = ViralFileCrypt.getRelativePath(inputDirPath, ipFilePath);
+        String opRelativePath = ViralFileCrypt.getRelativePath(manifestDirPath, opFilePath);
+        ViralCryptManifest.Entry entry = manifest.visit(ipRelativePath);
+        BasicFileAttributes atts;
+        try {
+            atts = Files.readAttributes(Paths.get(ipFilePath), BasicFileAttributes.class);
+        } catch (IOException e) {
+            manifest.remove(ipRelativePath);
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "could not read attributes of the file" + " [" + e.getMessage() + "]");
+        }
+        long size = atts.size();
+        long lastModified = atts.lastModifiedTime().toMillis();
+        File opFile = new File(opFilePath);
+        if (entry != null && entry.getSize() == size && entry.getOutputPath().equals(opRelativePath)
+                && opFile.isFile() && opFile.length() == size) {
+            if (entry.getLastModified() == lastModified) {
+                return ViralCryptResult.skipped(ipFilePath, opFilePath);
+            }
+            if (hash && entry.getHash().length > 0) {
+                MessageDigest digest = newDigest();
+                try {
+                    engine.digestFile(ipFilePath, digest);
+                } catch (IOException e) {
+                    manifest.remove(ipRelativePath);
+                    return ViralCryptResult.failure(ipFilePath, opFilePath,
+                            "error while reading the file" + " [" + e.getMessage() + "]");
+                }
+                if (Arrays.equals(digest.digest(), entry.getHash())) {
+                    manifest.put(ipRelativePath,
+                            new ViralCryptManifest.Entry(size, lastModified, entry.getHash(), opRelativePath));
+                    return ViralCryptResult.skipped(ipFilePath, opFilePath);
+                }
+            }
+        }
+        MessageDigest digest = (hash ? newDigest() : null);
+        ViralCryptResult result = next.cryptFile(ipFilePath, opFilePath, (ipDigest == null ? digest
+                : (digest == null ? ipDigest : ViralCryptChecksums.tee(ipDigest, digest))));
+        if (result.isSuccess()) {
+            manifest.put(ipRelativePath, new ViralCryptManifest.Entry(size, lastModified,
+                    (digest == null ? null : digest.digest()), opRelativePath));
+        } else {
+            manifest.remove(ipRelativePath);
+        }
+        return result;
+    }
+
+    /**
+     * Records the input file completed by the interrupted run in the manifest, so that it is neither processed again
+     * nor taken as a deleted input file, it is processed again if it was modified after its output file was written.
+     */
+    ViralCryptResult resumeFile(String ipFilePath, String opFilePath) {
+        String ipRelativePath = ViralFileCrypt.getRelativePath(inputDirPath, ipFilePath);
+        File ipFile = new File(ipFilePath);
+        File opFile = new File(opFilePath);
+        long size = ipFile.length();
+        long lastModified = ipFile.lastModified();
+        if (opFile.isFile() && opFile.length() == size && opFile.lastModified() >= lastModified) {
+            manifest.visit(ipRelativePath);
+            manifest.put(ipRelativePath, new ViralCryptManifest.Entry(size, lastModified, null,
+                    ViralFileCrypt.getRelativePath(manifestDirPath, opFilePath)));
+            return ViralCryptResult.skipped(ipFilePath, opFilePath);
+        }
+        return cryptFile(ipFilePath, opFilePath, null);
+    }
+
+    /**
+     * Deletes the output files of the input files which were in the manifest but no longer exist, errors are added
+     * to the list.
+     *
+     * @param checksums checksums of the output files, the deleted output files are removed from them, can be null
+     * @return number of deleted output files
+     */
+    int deleteRemovedOutputs(ViralCryptChecksums checksums, List<String> errors) {
+        int countRemoved = 0;
+        for (ViralCryptManifest.Entry entry : manifest.removeDeleted(new File(inputDirPath)).values()) {
+            File opFile = new File(manifestDirPath, entry.getOutputPath());
+            if (checksums != null) {
+                checksums.remove(entry.getOutputPath().replace(File.separator, "/"));
+            }
+            if (opFile.delete()) {
+                countRemoved++;
+            } else if (opFile.exists()) {
+                errors.add("could not delete output of deleted input file: " + opFile.getPath());
+            }
+        }
+        return countRemoved;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.virallalakia.crypt.file;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Include/exclude rules of the files and directories walked under the input directory, all patterns are compiled
+ * once. Patterns are glob patterns by default, or any syntax of FileSystem.getPathMatcher with a prefix (e.g.
+ * regex:.*\.log). Glob patterns without / are matched against the file/directory name at any depth, other patterns
+ * are matched against the path relative to the input directory. Excluded directories are not walked at all.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+final class ViralPathFilter {
+
+    private final Path baseDir;
+    private final PathMatcher nameMatcher;
+    private final List<PathMatcher> includeNameMatchers = new ArrayList<PathMatcher>();
+    private final List<PathMatcher> includePathMatchers = new ArrayList<PathMatcher>();
+    private final List<PathMatcher> excludeNameMatchers = new ArrayList<PathMatcher>();
+    private final List<PathMatcher> excludePathMatchers = new ArrayList<PathMatcher>();
+    private final Set<Path> excludedPaths;
+    private final Set<String> excludedDirNames;
+
+    /**
+     * @param baseDir input directory, it is never excluded
+     * @param nameGlob glob pattern which the file names must match, can be null
+     * @param includes patterns of which files must match at least one, all files are included if empty
+     * @param excludes patterns of files and directories to be skipped
+     * @param excludedPaths normalized paths of directories and files to be skipped (e.g. output directory)
+     * @param excludedDirNames exact names of directories to be skipped at any depth
+     * @throws IllegalArgumentException if a pattern is not valid
+     */
+    ViralPathFilter(Path baseDir, String nameGlob, List<String> includes, List<String> excludes,
+            Set<Path> excludedPaths, Set<String> excludedDirNames) {
+        this.baseDir = baseDir;
+        this.nameMatcher = (nameGlob == null ? null : compile("glob:" + nameGlob));
+        for (String include : includes) {
+            (isNamePattern(include) ? includeNameMatchers : includePathMatchers).add(compile(include));
+        }
+        for (String exclude : excludes) {
+            (isNamePattern(exclude) ? excludeNameMatchers : excludePathMatchers).add(compile(exclude));
+        }
+        this.excludedPaths = excludedPaths;
+        this.excludedDirNames = excludedDirNames;
+    }
+
+    /**
+     * Filter which skips only the excluded paths.
+     */
+    static ViralPathFilter of(Path baseDir, Set<Path> excludedPaths) {
+        return new ViralPathFilter(baseDir, null, Collections.<String> emptyList(),
+                Collections.<String> emptyList(), excludedPaths, Collections.<String> emptySet());
+    }
+
+    private static boolean isNamePattern(String pattern) {
+        return !hasSyntax(pattern) && pattern.indexOf('/') == -1;
+    }
+
+    private static boolean hasSyntax(String pattern) {
+        return pattern.startsWith("glob:") || pattern.startsWith("regex:");
+    }
+
+    private static PathMatcher compile(String pattern) {
+        try {
+            return FileSystems.getDefault().getPathMatcher(hasSyntax(pattern) ? pattern : "glob:" + pattern);
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalArgumentException("unsupported pattern: " + pattern, e);
+        }
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the directory and all its sub-directories must not be walked
+     */
+    boolean isExcludedDir(Path dir) {
+        if (dir.equals(baseDir)) {
+            return false;
+        }
+        if (!excludedPaths.isEmpty() && excludedPaths.contains(dir.normalize())) {
+            return true;
+        }
+        Path name = dir.getFileName();
+        if (name != null && (excludedDirNames.contains(name.toString()) || matchesAny(excludeNameMatchers, name))) {
+            return true;
+        }
+        return !excludePathMatchers.isEmpty() && matchesAny(excludePathMatchers, baseDir.relativize(dir));
+    }
+
+    /**
+     * @return true if the file is to be encrypted/decrypted
+     */
+    boolean isIncludedFile(Path file) {
+        if (!excludedPaths.isEmpty() && excludedPaths.contains(file.normalize())) {
+            return false;
+        }
+        Path name = file.getFileName();
+        if (nameMatcher != null && !nameMatcher.matches(name)) {
+            return false;
+        }
+        Path relativePath = (excludePathMatchers.isEmpty() && includePathMatchers.isEmpty() ? null
+                : baseDir.relativize(file));
+        if (matchesAny(excludeNameMatchers, name)
+                || (relativePath != null && matchesAny(excludePathMatchers, relativePath))) {
+            return false;
+        }
+        if (includeNameMatchers.isEmpty() && includePathMatchers.isEmpty()) {
+            return true;
+        }
+        return matchesAny(includeNameMatchers, name)
+                || (relativePath != null && matchesAny(includePathMatchers, relativePath));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ViralPathFilter [baseDir=").append(baseDir).append(", excludedPaths=").append(excludedPaths)
+                .append(", excludedDirNames=").append(excludedDirNames).append("]");
+        return builder.toString();
+    }
+
+}
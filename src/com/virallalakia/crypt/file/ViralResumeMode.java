@@ -0,0 +1,69 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * With --resume, journals the completed input files in the checkpoint, and skips the input files completed by the
+ * interrupted run.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralResumeMode implements ViralCryptMode {
+
+    private final ViralCryptMode next;
+    private final ViralIncrementalMode incrementalMode;
+    private final ViralCryptCheckpoint checkpoint;
+    private final String inputDirPath;
+
+    /**
+     * @param next mode to which the files not completed by the interrupted run are passed
+     * @param incrementalMode if not null, records the files completed by the interrupted run in its manifest
+     * @param inputDirPath input directory, paths of the input files are journaled relative to it
+     */
+    ViralResumeMode(ViralCryptMode next, ViralIncrementalMode incrementalMode, ViralCryptCheckpoint checkpoint,
+            String inputDirPath) {
+        this.next = next;
+        this.incrementalMode = incrementalMode;
+        this.checkpoint = checkpoint;
+        this.inputDirPath = inputDirPath;
+    }
+
+    /**
+     * Skips the input file completed by the interrupted run, it is processed again if its output file is missing or
+     * of another size, e.g. if the rename of the output file was lost with the interrupted run.
+     */
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        if (!checkpoint.isCompleted(ViralFileCrypt.getRelativePath(inputDirPath, ipFilePath))) {
+            return next.cryptFile(ipFilePath, opFilePath, ipDigest);
+        }
+        if (incrementalMode != null) {
+            return incrementalMode.resumeFile(ipFilePath, opFilePath);
+        }
+        File opFile = new File(opFilePath);
+        if (opFile.isFile() && opFile.length() == new File(ipFilePath).length()) {
+            return ViralCryptResult.skipped(ipFilePath, opFilePath);
+        }
+        return next.cryptFile(ipFilePath, opFilePath, ipDigest);
+    }
+
+    /**
+     * Journals the input file of the successful result as completed, unless it was completed by the interrupted run.
+     *
+     * @return true if the input file was skipped as completed by the interrupted run
+     */
+    boolean complete(ViralCryptResult result) throws IOException {
+        String ipRelativePath = ViralFileCrypt.getRelativePath(inputDirPath, result.getInputPath());
+        if (checkpoint.isCompleted(ipRelativePath)) {
+            return result.isSkipped();
+        }
+        checkpoint.complete(ipRelativePath);
+        return false;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.virallalakia.crypt.file;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Encrypts/decrypts from standard input and/or to standard output, or with --range only a range of the input file,
+ * input/output is a file if it is not "-". The output is written as it is encrypted/decrypted, without a temporary
+ * file.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralStreamMode implements ViralCryptMode {
+
+    private static final String STREAM_PATH = ViralFileCrypt.STREAM_PATH;
+
+    private final ViralCryptEngine engine;
+    private final long rangeStart;
+    private final long rangeLength;
+
+    /**
+     * @param rangeStart position of the first byte of the range in the input file, -1 for the whole input
+     * @param rangeLength number of bytes of the range
+     */
+    ViralStreamMode(ViralCryptEngine engine, long rangeStart, long rangeLength) {
+        this.engine = engine;
+        this.rangeStart = rangeStart;
+        this.rangeLength = rangeLength;
+    }
+
+    /**
+     * @param ipDigest not supported, must be null
+     */
+    @Override
+    public ViralCryptResult cryptFile(String ipFilePath, String opFilePath, MessageDigest ipDigest) {
+        if (!STREAM_PATH.equals(opFilePath)) {
+            new File(opFilePath).getAbsoluteFile().getParentFile().mkdirs();
+        }
+        long bytes = 0;
+        try (FileInputStream ipFis = (STREAM_PATH.equals(ipFilePath) ? new FileInputStream(FileDescriptor.in)
+                : new FileInputStream(ipFilePath));
+                FileOutputStream opFos = (STREAM_PATH.equals(opFilePath) ? new FileOutputStream(FileDescriptor.out)
+                        : new FileOutputStream(opFilePath));
+                FileChannel ipChannel = ipFis.getChannel();
+                FileChannel opChannel = opFos.getChannel()) {
+            bytes = (rangeStart >= 0 ? engine.cryptRange(ipChannel, rangeStart, rangeLength, opChannel)
+                    : engine.crypt(ipChannel, opChannel));
+        } catch (FileNotFoundException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "could not find the file" + " [" + e.getMessage() + "]");
+        } catch (IOException e) {
+            return ViralCryptResult.failure(ipFilePath, opFilePath,
+                    "error while read/write with " + (rangeStart >= 0 ? "file" : "stream") + " [" + e.getMessage()
+                            + "]");
+        }
+        return ViralCryptResult.success(ipFilePath, opFilePath, bytes);
+    }
+
+}
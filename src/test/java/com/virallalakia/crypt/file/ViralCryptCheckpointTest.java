@@ -0,0 +1,102 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that ViralCryptCheckpoint loads the records of an interrupted run, drops a torn last record and appends new
+ * records after the last valid record.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptCheckpointTest {
+
+    private static final long FINGERPRINT = ViralCryptKernel.forSalt("salt").fingerprint();
+    private static final String INPUT = "/in/**/*";
+
+    @TempDir
+    Path tempDir;
+
+    private File getCheckpointFile() {
+        return tempDir.resolve(ViralCryptCheckpoint.CHECKPOINT_FILE).toFile();
+    }
+
+    private void interruptedRun(String... completedPaths) throws IOException {
+        ViralCryptCheckpoint checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, INPUT);
+        for (String completedPath : completedPaths) {
+            checkpoint.complete(completedPath);
+        }
+        checkpoint.close(false);
+    }
+
+    @Test
+    void tornLastRecordIsDroppedAndNewRecordsAreAppended() throws IOException {
+        interruptedRun("a.txt", "sub/b.txt", "c.txt");
+        long validLength = getCheckpointFile().length();
+        // length of a record of 12 bytes, followed by only 5 of its bytes
+        Files.write(getCheckpointFile().toPath(), new byte[] { 0, 12, 'd', '.', 't', 'x', 't' },
+                StandardOpenOption.APPEND);
+
+        ViralCryptCheckpoint checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, INPUT);
+        assertEquals(3, checkpoint.getCompletedCount());
+        assertTrue(checkpoint.isCompleted("sub/b.txt"));
+        assertFalse(checkpoint.isCompleted("d.txt"));
+        assertEquals(validLength, getCheckpointFile().length());
+        checkpoint.complete("e.txt");
+        checkpoint.close(false);
+
+        checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, INPUT);
+        assertEquals(4, checkpoint.getCompletedCount());
+        for (String path : Arrays.asList("a.txt", "sub/b.txt", "c.txt", "e.txt")) {
+            assertTrue(checkpoint.isCompleted(path), path);
+        }
+        checkpoint.close(true);
+        assertFalse(getCheckpointFile().exists());
+    }
+
+    @Test
+    void tornRecordLengthIsDropped() throws IOException {
+        interruptedRun("a.txt");
+        long validLength = getCheckpointFile().length();
+        Files.write(getCheckpointFile().toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+
+        ViralCryptCheckpoint checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, INPUT);
+        assertEquals(1, checkpoint.getCompletedCount());
+        assertEquals(validLength, getCheckpointFile().length());
+        checkpoint.close(false);
+    }
+
+    @Test
+    void newCheckpointIsStartedForTornHeaderOrAnotherRun() throws IOException {
+        interruptedRun("a.txt");
+        byte[] bytes = Files.readAllBytes(getCheckpointFile().toPath());
+        Files.write(getCheckpointFile().toPath(), Arrays.copyOf(bytes, 10));
+        ViralCryptCheckpoint checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, INPUT);
+        assertEquals(0, checkpoint.getCompletedCount());
+        checkpoint.close(false);
+
+        interruptedRun("a.txt");
+        checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), FINGERPRINT, "/other/*");
+        assertEquals(0, checkpoint.getCompletedCount());
+        checkpoint.close(false);
+        checkpoint = ViralCryptCheckpoint.open(tempDir.toFile(), ViralCryptKernel.forSalt("peppered").fingerprint(),
+                "/other/*");
+        assertEquals(0, checkpoint.getCompletedCount());
+        checkpoint.close(false);
+    }
+
+}
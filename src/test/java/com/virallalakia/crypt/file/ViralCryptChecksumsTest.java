@@ -0,0 +1,60 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the digests of ViralCryptChecksums give the same values for byte arrays and for heap and direct
+ * buffers, as the engine updates them with direct buffers.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptChecksumsTest {
+
+    private static final String[] ALGORITHMS = { ViralCryptChecksums.CRC32_ALGORITHM,
+            ViralCryptChecksums.CRC32C_ALGORITHM, ViralCryptChecksums.SHA256_ALGORITHM };
+
+    @Test
+    void buffersAndArraysGiveSameDigest() {
+        byte[] content = new byte[100 * 1024 + 7];
+        new Random(content.length).nextBytes(content);
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content).flip();
+        for (String algorithm : ALGORITHMS) {
+            byte[] expected = ViralCryptChecksums.newDigest(algorithm).digest(content);
+
+            MessageDigest digest = ViralCryptChecksums.newDigest(algorithm);
+            digest.update(ByteBuffer.wrap(content, 0, 1000));
+            ByteBuffer rest = direct.duplicate();
+            rest.position(1000);
+            digest.update(rest);
+            assertEquals(content.length, rest.position(), algorithm);
+            assertArrayEquals(expected, digest.digest(), algorithm);
+            // the digest is reset once it is read
+            digest.update(direct.duplicate());
+            assertArrayEquals(expected, digest.digest(), algorithm);
+        }
+    }
+
+    @Test
+    void crc32IsSameAsJavaCrc32() {
+        byte[] content = "checksum of the content".getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        assertEquals(String.format("%08x", crc.getValue()),
+                ViralCryptChecksums.toHex(ViralCryptChecksums.newDigest(ViralCryptChecksums.CRC32_ALGORITHM)
+                        .digest(content)));
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the LRU eviction and the persistence of ViralCryptDedupe, and its copies and hard links of cached outputs.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptDedupeTest {
+
+    private static final long FINGERPRINT = ViralCryptKernel.forSalt("salt").fingerprint();
+
+    @TempDir
+    File tempDir;
+
+    private static byte[] hash(String content) {
+        return ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM)
+                .digest(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void put(ViralCryptDedupe dedupe, long size, String head, String content) {
+        dedupe.put(size, hash(head), hash(content), new ViralCryptDedupe.CachedOutput(content + ".out", size));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        ViralCryptDedupe dedupe = ViralCryptDedupe.load(tempDir, FINGERPRINT, 2);
+        put(dedupe, 1, "a", "a");
+        put(dedupe, 2, "b", "b");
+        assertNotNull(dedupe.get(1, hash("a")));
+        put(dedupe, 3, "c", "c");
+
+        assertNull(dedupe.get(2, hash("b")));
+        assertFalse(dedupe.containsSize(2));
+        assertFalse(dedupe.containsHead(2, hash("b")));
+        assertEquals("a.out", dedupe.get(1, hash("a")).getOutputPath());
+        assertEquals("c.out", dedupe.get(3, hash("c")).getOutputPath());
+        assertTrue(dedupe.containsSize(3));
+        assertTrue(dedupe.containsHead(3, hash("c")));
+    }
+
+    @Test
+    void indexesCountEntriesOfSameSizeAndHead() throws IOException {
+        ViralCryptDedupe dedupe = ViralCryptDedupe.load(tempDir, FINGERPRINT);
+        put(dedupe, 10, "head", "head and tail");
+        put(dedupe, 10, "head", "head and more");
+        put(dedupe, 10, "other", "other head");
+        assertFalse(dedupe.containsHead(10, hash("none")));
+
+        dedupe.remove(10, hash("head and tail"));
+        assertTrue(dedupe.containsHead(10, hash("head")));
+        dedupe.remove(10, hash("head and more"));
+        assertFalse(dedupe.containsHead(10, hash("head")));
+        assertTrue(dedupe.containsSize(10));
+        dedupe.remove(10, hash("other head"));
+        assertFalse(dedupe.containsSize(10));
+    }
+
+    @Test
+    void cacheIsSavedForNextRunsWithSameSalt() throws IOException {
+        ViralCryptDedupe dedupe = ViralCryptDedupe.load(tempDir, FINGERPRINT);
+        put(dedupe, 1, "a", "a");
+        put(dedupe, 2, "b", "b");
+        dedupe.save();
+
+        dedupe = ViralCryptDedupe.load(tempDir, FINGERPRINT, 1);
+        assertNull(dedupe.get(1, hash("a")));
+        assertEquals("b.out", dedupe.get(2, hash("b")).getOutputPath());
+        assertEquals(2, dedupe.get(2, hash("b")).getLastModified());
+        assertTrue(dedupe.containsHead(2, hash("b")));
+
+        dedupe = ViralCryptDedupe.load(tempDir, ViralCryptKernel.forSalt("pepper!!").fingerprint());
+        assertFalse(dedupe.containsSize(2));
+    }
+
+    @Test
+    void cachedOutputIsCopiedOrLinked() throws IOException {
+        File source = new File(tempDir, "source.txt");
+        Files.write(source.toPath(), "cached output".getBytes(StandardCharsets.UTF_8));
+        File copy = new File(tempDir, "copies/copy.txt");
+        File link = new File(tempDir, "copies/link.txt");
+
+        ViralCryptDedupe.copy(source, copy, false);
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(copy.toPath()));
+        assertFalse(Files.isSameFile(source.toPath(), copy.toPath()));
+
+        ViralCryptDedupe.copy(source, link, true);
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(link.toPath()));
+        assertTrue(Files.isSameFile(source.toPath(), link.toPath()));
+        // a link of the source is left as it is
+        ViralCryptDedupe.copy(source, link, true);
+        assertTrue(Files.isSameFile(source.toPath(), link.toPath()));
+        assertFalse(new File(link.getPath() + ViralCryptEngine.TEMP_EXT).exists());
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the regions of large files and the buffer pool of ViralCryptEngine, files are encrypted/decrypted against
+ * ViralCryptKernel byte by byte.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class ViralCryptEngineTest {
+
+    private static final String SALT = "V_I_R_A_L_#_";
+    private static final int BUFFER_SIZE = 1000;
+    private static final long LARGE_FILE_SIZE = 10 * 1000;
+    private static final int REGION_SIZE = 3 * 1000 + 7;
+
+    @TempDir
+    File tempDir;
+
+    private byte[] crypt(ViralCryptKernel kernel, byte[] bytes) {
+        byte[] crypted = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            crypted[i] = kernel.crypt(bytes[i], i);
+        }
+        return crypted;
+    }
+
+    private void assertRegions(int asyncBuffers) throws IOException {
+        // regions which do not end at buffers nor at 64kb patterns of the salt, and a last partial region
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT, BUFFER_SIZE, 4, asyncBuffers,
+                ViralCryptEngine.IN_PLACE_CHUNK_SIZE, LARGE_FILE_SIZE, REGION_SIZE)) {
+            Random random = new Random(asyncBuffers);
+            for (int size : new int[] { (int) LARGE_FILE_SIZE - 1, (int) LARGE_FILE_SIZE, 5 * REGION_SIZE,
+                    200 * 1024 + 11 }) {
+                byte[] content = new byte[size];
+                random.nextBytes(content);
+                File ipFile = new File(tempDir, size + ".bin");
+                File opFile = new File(tempDir, "out/" + size + ".bin");
+                Files.write(ipFile.toPath(), content);
+
+                ViralCryptResult result = engine.cryptFile(ipFile.getPath(), opFile.getPath());
+                assertTrue(result.isSuccess(), result.getError());
+                assertEquals(size, result.getBytes());
+                assertArrayEquals(crypt(engine.getKernel(), content), Files.readAllBytes(opFile.toPath()),
+                        String.valueOf(size));
+                // regions are self-inverse too
+                File rtFile = new File(tempDir, "rt/" + size + ".bin");
+                assertTrue(engine.cryptFile(opFile.getPath(), rtFile.getPath()).isSuccess());
+                assertArrayEquals(content, Files.readAllBytes(rtFile.toPath()), String.valueOf(size));
+            }
+        }
+    }
+
+    @Test
+    void regionsOfLargeFilesAreSameAsKernel() throws IOException {
+        assertRegions(0);
+    }
+
+    @Test
+    void regionsOfLargeFilesAreSameAsKernelWithAsyncBuffers() throws IOException {
+        assertRegions(3);
+    }
+
+    @Test
+    void largeFileWithDigestIsReadInOnePass() throws IOException {
+        byte[] content = new byte[5 * REGION_SIZE];
+        new Random(content.length).nextBytes(content);
+        File ipFile = new File(tempDir, "large.bin");
+        File opFile = new File(tempDir, "large.out");
+        Files.write(ipFile.toPath(), content);
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT, BUFFER_SIZE, 4, 0,
+                ViralCryptEngine.IN_PLACE_CHUNK_SIZE, LARGE_FILE_SIZE, REGION_SIZE)) {
+            MessageDigest ipDigest = ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM);
+            MessageDigest opDigest = ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM);
+            assertTrue(engine.cryptFile(ipFile.getPath(), opFile.getPath(), ipDigest, opDigest).isSuccess());
+            byte[] crypted = crypt(engine.getKernel(), content);
+            assertArrayEquals(crypted, Files.readAllBytes(opFile.toPath()));
+            assertArrayEquals(ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM).digest(content),
+                    ipDigest.digest());
+            assertArrayEquals(ViralCryptChecksums.newDigest(ViralCryptChecksums.SHA256_ALGORITHM).digest(crypted),
+                    opDigest.digest());
+        }
+    }
+
+    @Test
+    void acquireWaitsWhileMaximumNumberOfBuffersIsInUse() throws IOException, InterruptedException {
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT, 1024, 1)) {
+            // at most 2 buffers per available processor are in use, far below 256mb in total
+            ByteBuffer[] byteBufs = engine.acquireBuffers(2 * Runtime.getRuntime().availableProcessors());
+            final AtomicReference<ByteBuffer> acquired = new AtomicReference<ByteBuffer>();
+            Thread acquirer = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        acquired.set(engine.acquireBuffer());
+                    } catch (IOException e) {
+                        // acquired stays null
+                    }
+                }
+
+            };
+            acquirer.start();
+            acquirer.join(200);
+            assertTrue(acquirer.isAlive());
+            engine.releaseBuffer(byteBufs[0]);
+            acquirer.join();
+            // the released buffer is reused
+            assertSame(byteBufs[0], acquired.get());
+        }
+    }
+
+    @Test
+    void waitingForBufferIsInterrupted() throws IOException, InterruptedException {
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT, 1024, 1)) {
+            engine.acquireBuffers(2 * Runtime.getRuntime().availableProcessors());
+            final AtomicReference<IOException> error = new AtomicReference<IOException>();
+            Thread acquirer = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        engine.acquireBuffer();
+                    } catch (IOException e) {
+                        error.set(e);
+                    }
+                }
+
+            };
+            acquirer.start();
+            acquirer.join(200);
+            acquirer.interrupt();
+            acquirer.join();
+            assertTrue(error.get() instanceof InterruptedIOException, String.valueOf(error.get()));
+            assertFalse(acquirer.isAlive());
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that ViralCryptKernel and ViralCryptEngine give byte-for-byte the same output as the original algorithm of
+ * ViralFileCrypt, which XORed every 64kb read of the file with the salt from the start of the read. The original
+ * algorithm dropped the last 1 to 3 bytes of a file whose last read ended within the last 3 bytes of its buffer, the
+ * bytes it did write are compared as they are and the dropped bytes are compared with the original algorithm run over
+ * a longer file.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptKernelTest {
+
+    private static final int BYTE_BUFFER_SIZE = 64 * 1024; // 64kb
+
+    private static final String[] SALTS = { "salt", "V_I_R_A_L_#_" };
+    private static final int[] SIZES = { 0, 1, 3, 4, 7, 65533, 65534, 65535, 65536, 65537, 3 * 65536 + 5 };
+    private static final ByteOrder[] ORDERS = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Original algorithm of ViralFileCrypt (cryptFileByByte), reading the input file with a FileChannel as it did.
+     *
+     * @return bytes written by the original algorithm
+     */
+    private static byte[] legacyCrypt(byte[] saltBytes, File ipFile) throws IOException {
+        int[] salt = new int[saltBytes.length / 4];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (((int) saltBytes[4 * i]) << 24) + (((int) saltBytes[4 * i + 1]) << 16)
+                    + (((int) saltBytes[4 * i + 2]) << 8) + (((int) saltBytes[4 * i + 3]));
+        }
+        ByteBuffer opBuf = ByteBuffer.allocate((int) ipFile.length());
+        try (FileInputStream ipFis = new FileInputStream(ipFile); FileChannel ipChannel = ipFis.getChannel()) {
+            ByteBuffer byteBuf = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+            byteBuf.clear();
+            long byteLimit = 0;
+            long intLimit = 0;
+            int[] intArr = new int[BYTE_BUFFER_SIZE / 4];
+            while ((byteLimit = ipChannel.read(byteBuf)) != -1) {
+                while (byteBuf.position() % 4 != 0 && byteBuf.position() + 1 < BYTE_BUFFER_SIZE) {
+                    byteBuf.put((byte) 127);
+                }
+                byteBuf.flip();
+                intLimit = (long) Math.ceil(byteBuf.limit() / 4);
+                byteBuf.asIntBuffer().get(intArr, 0, (int) intLimit);
+                byteBuf.clear();
+                for (int i = 0; i < (int) intLimit; i++) {
+                    intArr[i] ^= salt[i % salt.length];
+                    if (byteBuf.position() + 4 <= byteLimit) {
+                        byteBuf.putInt(intArr[i]);
+                    } else {
+                        if (byteBuf.position() < byteLimit) {
+                            byteBuf.put((byte) (intArr[i] >> 24));
+                            if (byteBuf.position() < byteLimit) {
+                                byteBuf.put((byte) (intArr[i] >> 16));
+                                if (byteBuf.position() < byteLimit) {
+                                    byteBuf.put((byte) (intArr[i] >> 8));
+                                    if (byteBuf.position() < byteLimit) {
+                                        byteBuf.put((byte) (intArr[i]));
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                byteBuf.flip();
+                opBuf.put(byteBuf);
+                byteBuf.clear();
+            }
+        }
+        return Arrays.copyOf(opBuf.array(), opBuf.position());
+    }
+
+    /**
+     * @return output of the original algorithm for the input file, including the bytes it dropped
+     */
+    private byte[] legacyOutput(byte[] saltBytes, File ipFile) throws IOException {
+        byte[] output = legacyCrypt(saltBytes, ipFile);
+        int size = (int) ipFile.length();
+        if (output.length == size) {
+            return output;
+        }
+        byte[] input = Files.readAllBytes(ipFile.toPath());
+        File longerFile = tempDir.resolve(ipFile.getName() + "-longer").toFile();
+        Files.write(longerFile.toPath(), Arrays.copyOf(input, size + 4));
+        byte[] longerOutput = Arrays.copyOf(legacyCrypt(saltBytes, longerFile), size);
+        assertArrayEquals(output, Arrays.copyOf(longerOutput, output.length), "longer file of size " + size);
+        return longerOutput;
+    }
+
+    private File createInputFile(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File ipFile = tempDir.resolve("input-" + size).toFile();
+        Files.write(ipFile.toPath(), content);
+        return ipFile;
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct, ByteOrder order) {
+        return (direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(order);
+    }
+
+    private static byte[] toArray(ByteBuffer byteBuf, int offset, int size) {
+        byte[] bytes = new byte[size];
+        ByteBuffer readBuf = byteBuf.duplicate();
+        readBuf.position(offset);
+        readBuf.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void legacyAlgorithmDroppedTrailingBytes() throws IOException {
+        for (int size = 65532; size <= 65537; size++) {
+            int dropped = (size >= 65533 && size <= 65535 ? size - 65532 : 0);
+            assertEquals(size - dropped, legacyCrypt("salt".getBytes(), createInputFile(size)).length, "size " + size);
+        }
+    }
+
+    @Test
+    void kernelMatchesLegacyAlgorithm() throws IOException {
+        for (String saltStr : SALTS) {
+            ViralCryptKernel kernel = ViralCryptKernel.forSalt(saltStr);
+            for (int size : SIZES) {
+                File ipFile = createInputFile(size);
+                byte[] input = Files.readAllBytes(ipFile.toPath());
+                byte[] expected = legacyOutput(saltStr.getBytes(), ipFile);
+                for (boolean direct : new boolean[] { false, true }) {
+                    for (ByteOrder order : ORDERS) {
+                        String message = "salt " + saltStr + ", size " + size + ", direct " + direct + ", " + order;
+
+                        ByteBuffer byteBuf = allocate(size, direct, order);
+                        byteBuf.put(input).flip();
+                        kernel.crypt(byteBuf, 0);
+                        assertArrayEquals(expected, toArray(byteBuf, 0, size), message);
+
+                        // unaligned buffer position and file positions, as with partial reads
+                        int offset = 3;
+                        byteBuf = allocate(size + offset, direct, order);
+                        byteBuf.position(offset);
+                        byteBuf.put(input);
+                        for (int start = 0; start < size; start += 1021) {
+                            int end = Math.min(size, start + 1021);
+                            byteBuf.limit(offset + end).position(offset + start);
+                            kernel.crypt(byteBuf, start);
+                        }
+                        assertArrayEquals(expected, toArray(byteBuf, offset, size), message + ", chunked");
+
+                        byte[] output = new byte[size];
+                        for (int i = 0; i < size; i++) {
+                            output[i] = kernel.crypt(input[i], i);
+                        }
+                        assertArrayEquals(expected, output, message + ", byte by byte");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void kernelMatchesLegacyAlgorithmWithNonAsciiSalt() throws IOException {
+        byte[] saltBytes = { (byte) 0xC3, (byte) 0xA9, 0x7F, (byte) 0x80, 0x00, (byte) 0xFF, 0x41, (byte) 0x9E };
+        ViralCryptKernel kernel = new ViralCryptKernel(saltBytes);
+        for (int size : SIZES) {
+            File ipFile = createInputFile(size);
+            byte[] expected = legacyOutput(saltBytes, ipFile);
+            for (ByteOrder order : ORDERS) {
+                ByteBuffer byteBuf = allocate(size, true, order);
+                byteBuf.put(Files.readAllBytes(ipFile.toPath())).flip();
+                kernel.crypt(byteBuf, 0);
+                assertArrayEquals(expected, toArray(byteBuf, 0, size), "size " + size + ", " + order);
+            }
+        }
+    }
+
+    @Test
+    void engineMatchesLegacyAlgorithm() throws IOException {
+        for (String saltStr : SALTS) {
+            ViralCryptEngine[] engines = { new ViralCryptEngine(saltStr),
+                    new ViralCryptEngine(saltStr, 1000, 1), new ViralCryptEngine(saltStr, 4096, 1, 2) };
+            try {
+                for (int size : SIZES) {
+                    File ipFile = createInputFile(size);
+                    byte[] expected = legacyOutput(saltStr.getBytes(), ipFile);
+                    for (int i = 0; i < engines.length; i++) {
+                        String message = "salt " + saltStr + ", size " + size + ", engine " + i;
+                        File opFile = tempDir.resolve("output-" + size + "-" + i).toFile();
+                        ViralCryptResult result = engines[i].cryptFile(ipFile.getPath(), opFile.getPath());
+                        assertTrue(result.isSuccess(), message + ": " + result.getError());
+                        assertArrayEquals(expected, Files.readAllBytes(opFile.toPath()), message);
+
+                        File inPlaceFile = tempDir.resolve("in-place-" + size + "-" + i).toFile();
+                        Files.copy(ipFile.toPath(), inPlaceFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        result = engines[i].cryptFileInPlace(inPlaceFile.getPath(), false);
+                        assertTrue(result.isSuccess(), message + ", in place: " + result.getError());
+                        assertArrayEquals(expected, Files.readAllBytes(inPlaceFile.toPath()), message + ", in place");
+                        engines[i].deleteInPlaceJournal(inPlaceFile.getPath());
+                    }
+                }
+            } finally {
+                for (ViralCryptEngine engine : engines) {
+                    engine.close();
+                }
+            }
+        }
+    }
+
+}
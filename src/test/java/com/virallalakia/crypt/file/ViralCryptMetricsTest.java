@@ -0,0 +1,62 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the latency histograms per file size of ViralCryptMetrics are available through JMX, as the report
+ * has them.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptMetricsTest {
+
+    @Test
+    void histogramsAreAvailableThroughJmx() throws JMException {
+        ViralCryptMetrics metrics = new ViralCryptMetrics();
+        metrics.recordResult(ViralCryptResult.success("a", "a", 100), TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordResult(ViralCryptResult.success("b", "b", 4095), TimeUnit.MILLISECONDS.toNanos(200));
+        metrics.recordResult(ViralCryptResult.success("c", "c", 5L * 1024 * 1024 * 1024),
+                TimeUnit.MILLISECONDS.toNanos(70000));
+        metrics.recordResult(ViralCryptResult.skipped("d", "d"), 0);
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.virallalakia.crypt.file:type=ViralCryptMetrics,name=test");
+        server.registerMBean(metrics, name);
+        assertArrayEquals(ViralCryptMetrics.LATENCY_BUCKETS,
+                (long[]) server.getAttribute(name, "LatencyBucketMaxMillis"));
+        CompositeData[] sizeBuckets = (CompositeData[]) server.getAttribute(name, "SizeBuckets");
+        assertEquals(ViralCryptMetrics.SIZE_BUCKETS.length, sizeBuckets.length);
+
+        CompositeData smallest = sizeBuckets[0];
+        assertEquals(4095L, smallest.get("maxSize"));
+        assertEquals(2L, smallest.get("files"));
+        assertEquals(4195L, smallest.get("bytes"));
+        assertTrue((Long) smallest.get("totalMillis") >= 203, smallest.toString());
+        assertEquals(200L, smallest.get("maxMillis"));
+        assertArrayEquals(new long[] { 0, 1, 0, 0, 1, 0, 0, 0, 0, 0 }, (long[]) smallest.get("latencyHistogram"));
+
+        CompositeData largest = sizeBuckets[sizeBuckets.length - 1];
+        assertEquals(Long.MAX_VALUE, largest.get("maxSize"));
+        assertEquals(1L, largest.get("files"));
+        assertArrayEquals(new long[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 }, (long[]) largest.get("latencyHistogram"));
+        for (int i = 1; i < sizeBuckets.length - 1; i++) {
+            assertEquals(0L, sizeBuckets[i].get("files"));
+        }
+    }
+
+}
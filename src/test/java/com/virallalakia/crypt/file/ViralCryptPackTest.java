@@ -0,0 +1,120 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes packs with ViralCryptPack.Writer and reads them back, and checks that entry paths cannot resolve outside of
+ * the output directory.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptPackTest {
+
+    private static final String SALT = "salt";
+    private static final String[] PATHS = { "a.bin", "sub/empty.bin", "sub/large.bin" };
+
+    @TempDir
+    File tempDir;
+
+    private byte[][] createFiles() throws IOException {
+        // the large file does not fit into the stage buffer of the writer
+        int[] sizes = { 1000, 0, 1536 * 1024 + 3 };
+        byte[][] contents = new byte[PATHS.length][];
+        Random random = new Random(PATHS.length);
+        for (int i = 0; i < PATHS.length; i++) {
+            contents[i] = new byte[sizes[i]];
+            random.nextBytes(contents[i]);
+            File file = new File(tempDir, "in/" + PATHS[i]);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), contents[i]);
+        }
+        return contents;
+    }
+
+    private File writePack(ViralCryptEngine engine) throws IOException {
+        File packFile = new File(tempDir, "out/files" + ViralCryptPack.PACK_EXT);
+        try (ViralCryptPack.Writer writer = new ViralCryptPack.Writer(packFile, engine)) {
+            for (String path : PATHS) {
+                ViralCryptResult result = writer.add(new File(tempDir, "in/" + path).getPath(), path);
+                assertTrue(result.isSuccess(), result.getError());
+            }
+        }
+        return packFile;
+    }
+
+    @Test
+    void packedEntriesAreExtractedByPath() throws IOException {
+        byte[][] contents = createFiles();
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT)) {
+            File packFile = writePack(engine);
+            try (ViralCryptPack pack = ViralCryptPack.open(packFile, engine.getKernel())) {
+                assertEquals(PATHS.length, pack.getEntries().size());
+                ByteBuffer byteBuf = ByteBuffer.allocateDirect(4096);
+                // entries are found by path irrespective of the order they are extracted in
+                for (int i = PATHS.length - 1; i >= 0; i--) {
+                    ViralCryptPack.Entry entry = pack.getEntry(PATHS[i]);
+                    assertEquals(PATHS[i], entry.getPath());
+                    assertEquals(new File(tempDir, "in/" + PATHS[i]).lastModified(), entry.getLastModified());
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    assertEquals(contents[i].length, pack.extract(entry, Channels.newChannel(bytes), byteBuf));
+                    assertArrayEquals(contents[i], bytes.toByteArray(), PATHS[i]);
+                }
+                assertNull(pack.getEntry("missing.bin"));
+                assertNull(pack.getEntry("sub"));
+            }
+        }
+    }
+
+    @Test
+    void packOfAnotherSaltIsRejected() throws IOException {
+        createFiles();
+        File packFile;
+        try (ViralCryptEngine engine = new ViralCryptEngine(SALT)) {
+            packFile = writePack(engine);
+        }
+        try (ViralCryptPack pack = ViralCryptPack.open(packFile, ViralCryptKernel.forSalt("peppered"))) {
+            fail("pack of another salt was opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("different salt"), e.getMessage());
+        }
+    }
+
+    @Test
+    void entryPathsOutsideOutputDirectoryAreRejected() {
+        String outputDirPath = new File(tempDir, "out").getPath();
+        assertEquals(new File(outputDirPath, "sub/a.txt").getPath(),
+                ViralCryptPack.getEntryOutputPath(outputDirPath, "sub/a.txt"));
+        assertEquals(new File(outputDirPath, "a.txt").getPath(),
+                ViralCryptPack.getEntryOutputPath(outputDirPath, "sub/../a.txt"));
+        for (String entryPath : new String[] { "../a.txt", "sub/../../a.txt", "..", "", ".", "/etc/passwd",
+                new File(tempDir, "a.txt").getAbsolutePath(), "../out2/a.txt" }) {
+            assertNull(ViralCryptPack.getEntryOutputPath(outputDirPath, entryPath), entryPath);
+        }
+
+        assertTrue(ViralCryptPack.isRelativePath("sub/a.txt"));
+        for (String entryPath : new String[] { "", "/a.txt", "\\a.txt", "C:/a.txt", "c:a.txt", "../a.txt",
+                "sub/../../a.txt", "sub/.." }) {
+            assertFalse(ViralCryptPack.isRelativePath(entryPath), entryPath);
+        }
+    }
+
+}
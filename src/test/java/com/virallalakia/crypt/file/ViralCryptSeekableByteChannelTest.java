@@ -0,0 +1,184 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that ViralCryptSeekableByteChannel reads and writes any range of a file exactly as ViralCryptKernel
+ * transforms the whole file, after seeks to unaligned positions, into unaligned buffers, and with an underlying
+ * channel which reads and writes only a few bytes at a time.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptSeekableByteChannelTest {
+
+    private static final String SALT = "V_I_R_A_L_#_";
+    private static final int SIZE = 2 * ViralCryptKernel.BLOCK_SIZE + 1001;
+    private static final int[][] RANGES = { { 65539, 1001 }, { 0, 7 }, { 3, 65536 }, { SIZE - 5, 5 },
+        { 65535, 2 }, { 7, 1 }, { 131070, 1003 }, { 1, SIZE - 1 } };
+
+    @TempDir
+    Path tempDir;
+
+    private final ViralCryptKernel kernel = ViralCryptKernel.forSalt(SALT);
+    private final byte[] original = new byte[SIZE];
+    private final byte[] crypted = new byte[SIZE];
+
+    ViralCryptSeekableByteChannelTest() {
+        new Random(SIZE).nextBytes(original);
+        for (int i = 0; i < SIZE; i++) {
+            crypted[i] = kernel.crypt(original[i], i);
+        }
+    }
+
+    /**
+     * Seekable channel which reads and writes at most the given number of bytes at a time.
+     */
+    private static SeekableByteChannel trickle(final SeekableByteChannel channel, final int maxLength) {
+        return new SeekableByteChannel() {
+
+            private ByteBuffer part(ByteBuffer buf) {
+                ByteBuffer part = buf.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), maxLength));
+                return part;
+            }
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ByteBuffer part = part(dst);
+                int bytesRead = channel.read(part);
+                dst.position(part.position());
+                return bytesRead;
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer part = part(src);
+                int bytesWritten = channel.write(part);
+                src.position(part.position());
+                return bytesWritten;
+            }
+
+            @Override
+            public long position() throws IOException {
+                return channel.position();
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) throws IOException {
+                channel.position(newPosition);
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long size) throws IOException {
+                channel.truncate(size);
+                return this;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+
+        };
+    }
+
+    private ViralCryptSeekableByteChannel open(Path file, int maxLength) throws IOException {
+        return new ViralCryptSeekableByteChannel(trickle(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE), maxLength), kernel);
+    }
+
+    /**
+     * Reads the range into a buffer at offset 3, with reads of at most 4099 bytes.
+     */
+    private static byte[] read(SeekableByteChannel channel, long position, int length, boolean direct)
+            throws IOException {
+        ByteBuffer buf = direct ? ByteBuffer.allocateDirect(length + 3) : ByteBuffer.allocate(length + 3);
+        channel.position(position);
+        buf.position(3);
+        while (buf.hasRemaining()) {
+            ByteBuffer part = buf.duplicate();
+            part.limit(Math.min(part.position() + 4099, part.capacity()));
+            assertTrue(channel.read(part) > 0);
+            buf.position(part.position());
+        }
+        assertEquals(position + length, channel.position());
+        byte[] bytes = new byte[length];
+        buf.position(3);
+        buf.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void rangesAreReadAfterSeeks() throws IOException {
+        Path file = tempDir.resolve("crypted.bin");
+        Files.write(file, crypted);
+        for (int maxLength : new int[] { 5, 4099, SIZE }) {
+            try (ViralCryptSeekableByteChannel channel = open(file, maxLength)) {
+                for (int i = 0; i < RANGES.length; i++) {
+                    int[] range = RANGES[i];
+                    assertArrayEquals(Arrays.copyOfRange(original, range[0], range[0] + range[1]),
+                            read(channel, range[0], range[1], i % 2 == 0), "range " + range[0] + " max " + maxLength);
+                }
+                channel.position(SIZE);
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+        }
+    }
+
+    @Test
+    void rangesAreWrittenOutOfOrderWithoutChangingSource() throws IOException {
+        for (int maxLength : new int[] { 5, 4099, SIZE }) {
+            Path file = tempDir.resolve("written" + maxLength + ".bin");
+            try (ViralCryptSeekableByteChannel channel = open(file, maxLength)) {
+                // the file is written from the end, in ranges of odd lengths from unaligned buffers
+                for (int end = SIZE, i = 0; end > 0; i++) {
+                    int length = Math.min(new int[] { 7, 65537, 1, 4093 }[i % 4], end);
+                    ByteBuffer source = ByteBuffer.allocate(length + 3);
+                    source.position(3);
+                    source.put(original, end - length, length);
+                    source.position(3);
+                    channel.position(end - length);
+                    assertEquals(length, channel.write(source));
+                    assertEquals(end, channel.position());
+                    assertArrayEquals(Arrays.copyOfRange(original, end - length, end),
+                            Arrays.copyOfRange(source.array(), 3, length + 3));
+                    end -= length;
+                }
+                assertEquals(SIZE, channel.size());
+                // a range is read back in the same channel
+                assertArrayEquals(Arrays.copyOfRange(original, 65530, 65550), read(channel, 65530, 20, false));
+            }
+            assertArrayEquals(crypted, Files.readAllBytes(file), "max length " + maxLength);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that ViralCryptInputStream, ViralCryptOutputStream, ViralCryptReadableByteChannel and
+ * ViralCryptWritableByteChannel transform the bytes exactly as ViralCryptKernel does for a whole file, with reads
+ * and writes of odd lengths at unaligned offsets, and with underlying streams and channels which read and write only
+ * a few bytes at a time.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralCryptStreamTest {
+
+    private static final String SALT = "V_I_R_A_L_#_";
+    private static final int SIZE = 2 * ViralCryptKernel.BLOCK_SIZE + 1001;
+    private static final int[] LENGTHS = { 1, 3, 7, 4096, 65537, 13 };
+
+    private final ViralCryptKernel kernel = ViralCryptKernel.forSalt(SALT);
+    private final byte[] original = new byte[SIZE];
+    private final byte[] crypted = new byte[SIZE];
+
+    ViralCryptStreamTest() {
+        new Random(SIZE).nextBytes(original);
+        for (int i = 0; i < SIZE; i++) {
+            crypted[i] = kernel.crypt(original[i], i);
+        }
+    }
+
+    /**
+     * Input stream which reads at most the given number of bytes at a time.
+     */
+    private static InputStream trickle(byte[] bytes, final int maxRead) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, Math.min(len, maxRead));
+            }
+
+        };
+    }
+
+    /**
+     * Writable channel which writes at most the given number of bytes at a time.
+     */
+    private static WritableByteChannel trickle(final ByteArrayOutputStream out, final int maxWrite) {
+        final WritableByteChannel channel = Channels.newChannel(out);
+        return new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), maxWrite));
+                int bytesWritten = channel.write(part);
+                src.position(part.position());
+                return bytesWritten;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+
+        };
+    }
+
+    @Test
+    void inputStreamReadsAtUnalignedOffsets() throws IOException {
+        for (int maxRead : new int[] { 5, 4099, SIZE }) {
+            byte[] actual = new byte[SIZE + 3];
+            try (ViralCryptInputStream in = new ViralCryptInputStream(trickle(original, maxRead), SALT)) {
+                int position = 0;
+                for (int i = 0; position < SIZE; i++) {
+                    if (i % 3 == 2) {
+                        actual[3 + position++] = (byte) in.read();
+                    } else {
+                        int bytesRead = in.read(actual, 3 + position, Math.min(LENGTHS[i % LENGTHS.length],
+                                SIZE - position));
+                        position += bytesRead;
+                    }
+                }
+                assertEquals(-1, in.read());
+                assertEquals(-1, in.read(actual, 0, 1));
+            }
+            assertArrayEquals(crypted, Arrays.copyOfRange(actual, 3, SIZE + 3), "max read " + maxRead);
+        }
+    }
+
+    @Test
+    void inputStreamContinuesAfterSkipAndReset() throws IOException {
+        try (ViralCryptInputStream in = new ViralCryptInputStream(new ByteArrayInputStream(crypted), SALT)) {
+            assertEquals(65539, in.skip(65539));
+            byte[] actual = new byte[1001];
+            in.mark(actual.length);
+            assertEquals(actual.length, in.read(actual));
+            assertArrayEquals(Arrays.copyOfRange(original, 65539, 65539 + actual.length), actual);
+            in.reset();
+            assertEquals(original[65539] & 0xFF, in.read());
+            assertEquals(7, in.read(actual, 1, 7));
+            assertArrayEquals(Arrays.copyOfRange(original, 65540, 65547), Arrays.copyOfRange(actual, 1, 8));
+        }
+    }
+
+    @Test
+    void outputStreamWritesAtUnalignedOffsetsWithoutChangingSource() throws IOException {
+        for (int bufferSize : new int[] { 5, 1000, ViralCryptKernel.BLOCK_SIZE }) {
+            byte[] source = new byte[SIZE + 3];
+            System.arraycopy(original, 0, source, 3, SIZE);
+            byte[] sourceCopy = source.clone();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ViralCryptOutputStream out = new ViralCryptOutputStream(bytes, SALT, bufferSize)) {
+                int position = 0;
+                for (int i = 0; position < SIZE; i++) {
+                    if (i % 3 == 2) {
+                        out.write(source[3 + position++]);
+                    } else {
+                        int length = Math.min(LENGTHS[i % LENGTHS.length], SIZE - position);
+                        out.write(source, 3 + position, length);
+                        position += length;
+                    }
+                }
+            }
+            assertArrayEquals(crypted, bytes.toByteArray(), "buffer size " + bufferSize);
+            assertArrayEquals(sourceCopy, source);
+        }
+    }
+
+    @Test
+    void readableChannelReadsIntoUnalignedBuffers() throws IOException {
+        for (boolean direct : new boolean[] { false, true }) {
+            ByteBuffer actual = direct ? ByteBuffer.allocateDirect(SIZE + 3) : ByteBuffer.allocate(SIZE + 3);
+            try (ViralCryptReadableByteChannel channel = new ViralCryptReadableByteChannel(
+                    Channels.newChannel(trickle(original, 4099)), SALT)) {
+                actual.position(3);
+                for (int i = 0; actual.position() < actual.capacity(); i++) {
+                    actual.limit(Math.min(actual.position() + LENGTHS[i % LENGTHS.length], actual.capacity()));
+                    channel.read(actual);
+                }
+                actual.limit(actual.capacity());
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+            byte[] bytes = new byte[SIZE];
+            actual.position(3);
+            actual.get(bytes);
+            assertArrayEquals(crypted, bytes, "direct " + direct);
+        }
+    }
+
+    @Test
+    void writableChannelWritesPartiallyWithoutChangingSource() throws IOException {
+        for (int maxWrite : new int[] { 5, 4099, SIZE }) {
+            ByteBuffer source = ByteBuffer.allocateDirect(SIZE + 3);
+            source.position(3);
+            source.put(original);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ViralCryptWritableByteChannel channel = new ViralCryptWritableByteChannel(trickle(bytes, maxWrite),
+                    kernel, 0, 1000)) {
+                source.position(3);
+                for (int i = 0; source.position() < source.capacity(); i++) {
+                    int length = Math.min(LENGTHS[i % LENGTHS.length], source.capacity() - source.position());
+                    source.limit(source.position() + length);
+                    assertEquals(length, channel.write(source));
+                    assertEquals(0, source.remaining());
+                }
+            }
+            assertArrayEquals(crypted, bytes.toByteArray(), "max write " + maxWrite);
+            byte[] sourceBytes = new byte[SIZE];
+            source.position(3);
+            source.get(sourceBytes);
+            assertArrayEquals(original, sourceBytes);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs jobs through a daemon on a loopback port with the client, as --daemon and --client do.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class ViralFileCryptDaemonTest {
+
+    private static final String SALT = "salt";
+
+    @TempDir
+    Path tempDir;
+
+    private String userHome;
+    private ServerSocket server;
+    private Thread daemon;
+    private String clientOutput;
+
+    @BeforeEach
+    void startDaemon() throws IOException, InterruptedException {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        daemon = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    ViralFileCryptDaemon.serve(server, new PrintStream(new ByteArrayOutputStream()));
+                } catch (IOException e) {
+                    // server socket is closed
+                }
+            }
+
+        };
+        daemon.start();
+        File daemonFile = tempDir.resolve(ViralFileCryptDaemon.DAEMON_FILE).toFile();
+        while (!daemonFile.isFile() || daemonFile.length() == 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    void stopDaemon() throws IOException, InterruptedException {
+        server.close();
+        daemon.join();
+        System.setProperty("user.home", userHome);
+    }
+
+    private int runClient(String... options) throws IOException {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        int status = ViralFileCryptDaemon.runClient(options, new PrintStream(console, true, "UTF-8"));
+        clientOutput = new String(console.toByteArray(), StandardCharsets.UTF_8);
+        assertFalse(clientOutput.contains("\u0000"), clientOutput);
+        return status;
+    }
+
+    @Test
+    void completedJobExitsWithZero() throws IOException {
+        File ipFile = tempDir.resolve("in/a.txt").toFile();
+        ipFile.getParentFile().mkdirs();
+        byte[] content = "file to be encrypted by the daemon".getBytes(StandardCharsets.UTF_8);
+        Files.write(ipFile.toPath(), content);
+        File opFile = tempDir.resolve("out/a.txt").toFile();
+
+        assertEquals(0, runClient("-s", SALT, "-i", ipFile.getPath(), "-o", opFile.getPath()), clientOutput);
+        assertTrue(clientOutput.contains("Successful processed files: 1 of 1"), clientOutput);
+        ViralCryptKernel kernel = ViralCryptKernel.forSalt(SALT);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = kernel.crypt(content[i], i);
+        }
+        assertArrayEquals(content, Files.readAllBytes(opFile.toPath()));
+    }
+
+    @Test
+    void failedJobExitsWithOne() throws IOException {
+        assertEquals(1, runClient("-s", SALT, "-i", tempDir.resolve("missing.txt").toString(), "-o",
+                tempDir.resolve("out.txt").toString()), clientOutput);
+        assertTrue(clientOutput.contains("Error(s)"), clientOutput);
+        // errors are printed only if verbose, the status does not depend on it
+        assertEquals(1, runClient("-f", "-s", SALT, "-i", tempDir.resolve("missing.txt").toString()));
+        assertEquals("", clientOutput);
+    }
+
+    @Test
+    void watchIsRejected() throws IOException {
+        assertEquals(1, runClient("-s", SALT, "-i", tempDir.resolve("in/*").toString(), "-o",
+                tempDir.resolve("out").toString(), "--watch"), clientOutput);
+        assertTrue(clientOutput.contains("option --watch is not supported with --client"), clientOutput);
+    }
+
+    @Test
+    void invalidTokenIsRejected() throws IOException {
+        File daemonFile = tempDir.resolve(ViralFileCryptDaemon.DAEMON_FILE).toFile();
+        String port = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.UTF_8).split(" ")[0];
+        Files.write(daemonFile.toPath(), (port + " 0123456789abcdef\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, runClient("-s", SALT, "-i", tempDir.resolve("in/*").toString()), clientOutput);
+        assertTrue(clientOutput.contains("invalid daemon token"), clientOutput);
+    }
+
+}
@@ -0,0 +1,351 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs ViralFileCrypt with options as given on the command line, against files in a temporary directory.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralFileCryptTest {
+
+    private static final String SALT = "salt";
+
+    @TempDir
+    Path tempDir;
+
+    private String run(String... options) throws IOException {
+        String output = runWithErrors(options);
+        assertFalse(output.contains("Error(s)"), output);
+        return output;
+    }
+
+    private String runWithErrors(String... options) throws IOException {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        new ViralFileCrypt(new PrintStream(console, true, "UTF-8"), tempDir.toFile()).processOptions(options);
+        return new String(console.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private File createFile(String path, String content) throws IOException {
+        File file = tempDir.resolve(path).toFile();
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private byte[] crypt(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ViralCryptKernel kernel = ViralCryptKernel.forSalt(SALT);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = kernel.crypt(bytes[i], i);
+        }
+        return bytes;
+    }
+
+    @Test
+    void incrementalRunWithFilterKeepsOutputsOfFilteredFiles() throws IOException {
+        File txtFile = createFile("in/a.txt", "text file");
+        File logFile = createFile("in/b.log", "log file");
+        File subLogFile = createFile("in/sub/c.log", "log file in a sub-directory");
+        File txtOutput = tempDir.resolve("out/a.txt").toFile();
+        File logOutput = tempDir.resolve("out/b.log").toFile();
+        File subLogOutput = tempDir.resolve("out/sub/c.log").toFile();
+
+        run("-s", SALT, "-i", "in/**/*", "-o", "out", "--incremental");
+        assertArrayEquals(crypt(txtFile), Files.readAllBytes(txtOutput.toPath()));
+        assertArrayEquals(crypt(logFile), Files.readAllBytes(logOutput.toPath()));
+        assertArrayEquals(crypt(subLogFile), Files.readAllBytes(subLogOutput.toPath()));
+
+        // excluded files still exist, their outputs are kept
+        String output = run("-s", SALT, "-i", "in/**/*", "-o", "out", "--incremental", "--exclude", "*.log");
+        assertTrue(output.contains("Deleted outputs of deleted input files: 0"), output);
+        assertArrayEquals(crypt(logFile), Files.readAllBytes(logOutput.toPath()));
+        assertArrayEquals(crypt(subLogFile), Files.readAllBytes(subLogOutput.toPath()));
+
+        // files not included still exist, their outputs are kept, outputs of deleted files are deleted
+        assertTrue(logFile.delete());
+        createFile("in/sub/c.log", "changed log file in a sub-directory");
+        output = run("-s", SALT, "-i", "in/**/*", "-o", "out", "--incremental", "--include", "sub/**");
+        assertTrue(output.contains("Deleted outputs of deleted input files: 1"), output);
+        assertArrayEquals(crypt(txtFile), Files.readAllBytes(txtOutput.toPath()));
+        assertArrayEquals(crypt(subLogFile), Files.readAllBytes(subLogOutput.toPath()));
+        assertFalse(logOutput.exists());
+
+        // manifest entries of the filtered files are kept, so that they are skipped by the next run without filter
+        output = run("-s", SALT, "-i", "in/**/*", "-o", "out", "--incremental");
+        assertArrayEquals(crypt(txtFile), Files.readAllBytes(txtOutput.toPath()));
+        assertTrue(output.contains("Skipped unchanged files: 2 of 2"), output);
+    }
+
+    @Test
+    void resumedRunSkipsFilesCompletedByInterruptedRun() throws IOException {
+        File[] ipFiles = new File[4];
+        File[] opFiles = new File[4];
+        for (int i = 0; i < ipFiles.length; i++) {
+            ipFiles[i] = createFile("in/" + i + ".txt", "file " + i);
+            opFiles[i] = tempDir.resolve("out/" + i + ".txt").toFile();
+        }
+        File checkpointFile = tempDir.resolve("out/" + ViralCryptCheckpoint.CHECKPOINT_FILE).toFile();
+
+        // without --resume, no checkpoint is written
+        run("-s", SALT, "-i", "in/*", "-o", "out");
+        assertFalse(checkpointFile.exists());
+        for (File opFile : opFiles) {
+            assertTrue(opFile.delete());
+        }
+
+        // the output of file 2 cannot be written, so the run is not completed and its checkpoint is kept
+        createFile("out/2.txt/blocker", "directory in place of the output file");
+        String output = runWithErrors("-s", SALT, "-i", "in/*", "-o", "out", "--resume");
+        assertTrue(output.contains("Errorful processed files: 1 of 4"), output);
+        assertTrue(checkpointFile.isFile());
+
+        // the last record is torn and the output of the first record is lost, as by a power loss
+        List<String> records = new ArrayList<String>();
+        long lastRecordStart = 0;
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(checkpointFile))) {
+            dis.readInt();
+            dis.readInt();
+            dis.readLong();
+            dis.readUTF();
+            while (dis.available() > 0) {
+                lastRecordStart = checkpointFile.length() - dis.available();
+                records.add(dis.readUTF());
+            }
+        }
+        assertEquals(3, records.size(), records.toString());
+        assertFalse(records.contains("2.txt"), records.toString());
+        try (FileChannel channel = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(lastRecordStart + 3);
+        }
+        assertTrue(tempDir.resolve("out/" + records.get(0)).toFile().delete());
+        assertTrue(tempDir.resolve("out/2.txt/blocker").toFile().delete());
+        assertTrue(opFiles[2].delete());
+
+        output = run("-s", SALT, "-i", "in/*", "-o", "out", "--resume");
+        assertTrue(output.contains("Skipped files completed by the interrupted run: 1 of 4"), output);
+        for (int i = 0; i < ipFiles.length; i++) {
+            assertArrayEquals(crypt(ipFiles[i]), Files.readAllBytes(opFiles[i].toPath()), opFiles[i].getPath());
+        }
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    void inPlaceRunDeletesJournalsAndIsResumedOrRolledBackWithCheckpoint() throws IOException {
+        File[] ipFiles = new File[4];
+        byte[][] originals = new byte[4][];
+        byte[][] crypted = new byte[4][];
+        for (int i = 0; i < ipFiles.length; i++) {
+            ipFiles[i] = createFile("in/" + i + ".txt", "file " + i);
+            originals[i] = Files.readAllBytes(ipFiles[i].toPath());
+            crypted[i] = crypt(ipFiles[i]);
+        }
+        File checkpointFile = tempDir.resolve("in/" + ViralCryptCheckpoint.CHECKPOINT_FILE).toFile();
+        // file 2 has a journal of another salt, so it cannot be processed and the run is not completed
+        File blockedJournal = ViralInPlaceJournal.getJournalFile(ipFiles[2]);
+        ViralInPlaceJournal.create(ipFiles[2], ViralCryptKernel.forSalt("peppered").fingerprint(),
+                ipFiles[2].length(), 4096).close();
+
+        for (int run = 0; run < 2; run++) {
+            String output = runWithErrors("-s", SALT, "-i", "in/*", "--in-place");
+            assertTrue(output.contains("Errorful processed files: 1 of 4"), output);
+            assertTrue(output.contains("journal was created with a different salt"), output);
+            assertTrue(checkpointFile.isFile());
+            for (int i = 0; i < ipFiles.length; i++) {
+                assertArrayEquals((i == 2 ? originals[i] : crypted[i]), Files.readAllBytes(ipFiles[i].toPath()));
+                assertEquals(i == 2, ViralInPlaceJournal.getJournalFile(ipFiles[i]).exists(), ipFiles[i].getPath());
+            }
+            if (run == 0) {
+                // the completed files are restored too, though their journals were deleted
+                output = runWithErrors("-s", SALT, "-i", "in/*", "--in-place", "--rollback");
+                assertTrue(output.contains("Errorful processed files: 1 of 4"), output);
+                assertFalse(checkpointFile.exists());
+                for (int i = 0; i < ipFiles.length; i++) {
+                    assertArrayEquals(originals[i], Files.readAllBytes(ipFiles[i].toPath()));
+                    assertEquals(i == 2, ViralInPlaceJournal.getJournalFile(ipFiles[i]).exists());
+                }
+            }
+        }
+
+        // the completed files are not processed twice, the checkpoint itself is not processed
+        assertTrue(blockedJournal.delete());
+        String output = run("-s", SALT, "-i", "in/*", "--in-place");
+        assertTrue(output.contains("Successful processed files: 4 of 4"), output);
+        for (int i = 0; i < ipFiles.length; i++) {
+            assertArrayEquals(crypted[i], Files.readAllBytes(ipFiles[i].toPath()));
+            assertFalse(ViralInPlaceJournal.getJournalFile(ipFiles[i]).exists());
+        }
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    void parallelRunWritesSameOutputAsSequentialRun() throws IOException {
+        Random random = new Random(42);
+        List<File> ipFiles = new ArrayList<File>();
+        for (int i = 0; i < 24; i++) {
+            // empty files, files within one buffer and files of many buffers with a partial last buffer
+            byte[] content = new byte[(i % 4 == 0 ? 0 : random.nextInt(300 * 1024))];
+            random.nextBytes(content);
+            File ipFile = tempDir.resolve("in/" + (i % 3 == 0 ? "sub/" : "") + i + ".bin").toFile();
+            ipFile.getParentFile().mkdirs();
+            Files.write(ipFile.toPath(), content);
+            ipFiles.add(ipFile);
+        }
+
+        run("-s", SALT, "-i", "in/**/*", "-o", "out1", "-t", "1");
+        run("-s", SALT, "-i", "in/**/*", "-o", "out4", "-t", "4");
+        run("-s", SALT, "-i", "in/**/*", "-o", "outp", "-p", "--async-io", "3");
+        for (File ipFile : ipFiles) {
+            Path relativePath = tempDir.resolve("in").relativize(ipFile.toPath());
+            byte[] expected = crypt(ipFile);
+            assertArrayEquals(expected, Files.readAllBytes(tempDir.resolve("out1").resolve(relativePath)));
+            assertArrayEquals(expected, Files.readAllBytes(tempDir.resolve("out4").resolve(relativePath)),
+                    relativePath.toString());
+            assertArrayEquals(expected, Files.readAllBytes(tempDir.resolve("outp").resolve(relativePath)),
+                    relativePath.toString());
+        }
+    }
+
+    @Test
+    void packedFilesAreListedExtractedAndUnpacked() throws IOException {
+        File[] ipFiles = { createFile("in/a.txt", "text file"), createFile("in/sub/b.log", "log file"),
+                createFile("in/sub/deeper/c.txt", "") };
+        assertTrue(ipFiles[1].setLastModified(1500000000000L));
+
+        String output = run("-s", SALT, "-i", "in/**/*", "-o", "files.vfcp", "--pack");
+        assertTrue(output.contains("Successful processed files: 3 of 3"), output);
+        File packFile = tempDir.resolve("files.vfcp").toFile();
+        assertTrue(packFile.isFile());
+        // the content and the index are encrypted
+        String packContent = new String(Files.readAllBytes(packFile.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(packContent.contains("text file"));
+        assertFalse(packContent.contains("sub/b.log"));
+
+        output = run("-s", SALT, "-i", "files.vfcp", "--list");
+        for (String path : new String[] { "a.txt", "sub/b.log", "sub/deeper/c.txt" }) {
+            assertTrue(output.contains(path), output);
+        }
+        assertTrue(output.contains(String.format("%15d  ", "log file".length())), output);
+
+        run("-s", SALT, "-i", "files.vfcp", "--extract", "sub/b.log", "-o", "b.log");
+        assertArrayEquals(Files.readAllBytes(ipFiles[1].toPath()), Files.readAllBytes(tempDir.resolve("b.log")));
+        output = runWithErrors("-s", SALT, "-i", "files.vfcp", "--extract", "sub/missing.log", "-o", "m.log");
+        assertTrue(output.contains("entry not found in pack: sub/missing.log"), output);
+
+        output = run("-s", SALT, "-i", "files.vfcp", "--unpack", "-o", "unpacked");
+        assertTrue(output.contains("Successful extracted entries: 3 of 3"), output);
+        for (File ipFile : ipFiles) {
+            Path opFile = tempDir.resolve("unpacked").resolve(tempDir.resolve("in").relativize(ipFile.toPath()));
+            assertArrayEquals(Files.readAllBytes(ipFile.toPath()), Files.readAllBytes(opFile), opFile.toString());
+            assertEquals(ipFile.lastModified(), opFile.toFile().lastModified(), opFile.toString());
+        }
+
+        // a pack of another salt is not extracted
+        output = runWithErrors("-s", "peppered", "-i", "files.vfcp", "--unpack", "-o", "unpacked2");
+        assertTrue(output.contains("different salt"), output);
+        assertFalse(tempDir.resolve("unpacked2").toFile().exists());
+    }
+
+    @Test
+    void checksumsAreWrittenAndVerified() throws IOException {
+        File[] ipFiles = { createFile("in/a.txt", "text file"), createFile("in/sub/b.txt", "another text file") };
+        for (String algorithm : new String[] { "crc32", "crc32c", "sha256" }) {
+            String opDir = "out-" + algorithm;
+            run("-s", SALT, "-i", "in/**/*", "-o", opDir, "--checksum", algorithm);
+            List<String> lines = Files.readAllLines(tempDir.resolve(opDir + "/.vfc-checksums"),
+                    StandardCharsets.UTF_8);
+            assertEquals("# vfc-checksums " + algorithm, lines.get(0));
+            assertEquals(3, lines.size(), lines.toString());
+            for (File ipFile : ipFiles) {
+                String opPath = tempDir.resolve("in").relativize(ipFile.toPath()).toString().replace(File.separator,
+                        "/");
+                String ipChecksum = ViralCryptChecksums.toHex(ViralCryptChecksums.newDigest(algorithm).digest(
+                        Files.readAllBytes(ipFile.toPath())));
+                String opChecksum = ViralCryptChecksums.toHex(ViralCryptChecksums.newDigest(algorithm).digest(
+                        crypt(ipFile)));
+                assertTrue(lines.contains(ipChecksum + " " + opChecksum + " " + opPath), lines.toString());
+            }
+
+            String output = run("-s", SALT, "-i", opDir + "/**/*", "--verify");
+            assertTrue(output.contains("Successful processed files: 3 of 3"), output);
+            // files in sub-directories are verified against the checksums of the output directory
+            output = run("-s", SALT, "-i", opDir + "/sub/*", "--verify");
+            assertTrue(output.contains("Successful processed files: 1 of 1"), output);
+        }
+
+        // the decrypted content is verified too
+        String output = runWithErrors("-s", "peppered", "-i", "out-crc32/**/*", "--verify");
+        assertTrue(output.contains("checksum mismatch of the encrpyted/decrypted content (wrong salt?)"), output);
+        byte[] bytes = Files.readAllBytes(tempDir.resolve("out-crc32/sub/b.txt"));
+        bytes[3]++;
+        Files.write(tempDir.resolve("out-crc32/sub/b.txt"), bytes);
+        createFile("out-crc32/c.txt", "file without checksum");
+        output = runWithErrors("-s", SALT, "-i", "out-crc32/**/*", "--verify");
+        assertTrue(output.contains("Errorful processed files: 2 of 4"), output);
+        assertTrue(output.contains("checksum mismatch of the file: "), output);
+        assertTrue(output.contains("no checksum of the file: "), output);
+        output = runWithErrors("-s", SALT, "-i", "in/*", "--verify");
+        assertTrue(output.contains("no checksums to verify"), output);
+    }
+
+    @Test
+    void duplicatesAreLinkedAndCachedForNextRuns() throws IOException {
+        byte[] content = new byte[100 * 1024];
+        new Random(content.length).nextBytes(content);
+        File[] ipFiles = { tempDir.resolve("in/a.bin").toFile(), tempDir.resolve("in/sub/b.bin").toFile(),
+                tempDir.resolve("in/c.bin").toFile(), tempDir.resolve("in/d.bin").toFile() };
+        for (File ipFile : ipFiles) {
+            ipFile.getParentFile().mkdirs();
+            Files.write(ipFile.toPath(), content);
+        }
+        // same size and first 64kb, but another content
+        content[content.length - 1]++;
+        Files.write(ipFiles[2].toPath(), content);
+        // same size, but other first 64kb
+        content[0]++;
+        Files.write(ipFiles[3].toPath(), content);
+
+        String output = run("-s", SALT, "-i", "in/**/*", "-o", "out", "--dedupe", "--dedupe-links");
+        assertTrue(output.contains("Deduplicated files: 1 of 4"), output);
+        for (File ipFile : ipFiles) {
+            Path opFile = tempDir.resolve("out").resolve(tempDir.resolve("in").relativize(ipFile.toPath()));
+            assertArrayEquals(crypt(ipFile), Files.readAllBytes(opFile), opFile.toString());
+        }
+        Path aOutput = tempDir.resolve("out/a.bin");
+        assertTrue(Files.isSameFile(aOutput, tempDir.resolve("out/sub/b.bin")));
+
+        // the cache is saved with the outputs, a duplicate of the next run is copied
+        Files.copy(ipFiles[0].toPath(), createFile("in2/e.bin", "").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        output = run("-s", SALT, "-i", "in2/*", "-o", "out", "--dedupe");
+        assertTrue(output.contains("Deduplicated files: 1 of 1"), output);
+        Path eOutput = tempDir.resolve("out/e.bin");
+        assertArrayEquals(Files.readAllBytes(aOutput), Files.readAllBytes(eOutput));
+        assertFalse(Files.isSameFile(aOutput, eOutput));
+    }
+
+}
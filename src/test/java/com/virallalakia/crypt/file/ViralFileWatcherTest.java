@@ -0,0 +1,182 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that ViralFileWatcher reports created and modified files only once they are stable, rescans the watched
+ * directories when events are lost, and that --watch encrypts the files again as they change.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class ViralFileWatcherTest {
+
+    private static final String SALT = "salt";
+
+    @TempDir
+    Path tempDir;
+
+    private ViralFileWatcher newWatcher(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new ViralFileWatcher(dir, true, new ViralFileCrypt.ViralFileListMaker(true, null, null, null,
+                ViralPathFilter.of(dir, Collections.<Path> emptySet()), null, null));
+    }
+
+    private static byte[] crypt(byte[] content) {
+        ViralCryptKernel kernel = ViralCryptKernel.forSalt(SALT);
+        byte[] crypted = new byte[content.length];
+        for (int i = 0; i < content.length; i++) {
+            crypted[i] = kernel.crypt(content[i], i);
+        }
+        return crypted;
+    }
+
+    /**
+     * Waits till the file has exactly the expected content, while the watching thread is running.
+     */
+    private static void awaitContent(Thread watch, File file, byte[] expected) throws IOException,
+            InterruptedException {
+        while (!file.isFile() || !Arrays.equals(expected, Files.readAllBytes(file.toPath()))) {
+            assertTrue(watch.isAlive(), "watch stopped");
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void fileBeingWrittenIsReportedOnceStable() throws IOException, InterruptedException {
+        Path dir = tempDir.resolve("in");
+        try (ViralFileWatcher watcher = newWatcher(dir)) {
+            final Path file = dir.resolve("growing.txt");
+            Thread writer = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            Files.write(file, ("line " + i + "\n").getBytes(StandardCharsets.UTF_8),
+                                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                            Thread.sleep(ViralFileWatcher.DEBOUNCE_MILLIS / 3);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+            };
+            writer.start();
+            List<String> changedFiles = watcher.awaitChangedFiles();
+            long reported = System.currentTimeMillis();
+            // the writes are debounced, the file is reported only after the last write
+            assertFalse(writer.isAlive());
+            writer.join();
+            assertEquals(Collections.singletonList(file.toAbsolutePath().toString()), changedFiles);
+            assertEquals(5 * "line 0\n".length(), Files.size(file));
+            assertTrue(reported - Files.getLastModifiedTime(file).toMillis() >= ViralFileWatcher.DEBOUNCE_MILLIS,
+                    "reported " + reported);
+        }
+    }
+
+    @Test
+    void filesOfNewDirectoryAreReported() throws IOException, InterruptedException {
+        Path dir = tempDir.resolve("in");
+        try (ViralFileWatcher watcher = newWatcher(dir)) {
+            Path subDir = Files.createDirectories(dir.resolve("sub/deeper"));
+            Files.write(subDir.resolve("a.txt"), new byte[] { 1, 2, 3 });
+            assertEquals(Collections.singletonList(subDir.resolve("a.txt").toAbsolutePath().toString()),
+                    watcher.awaitChangedFiles());
+
+            // the new directory is watched too
+            Files.write(subDir.resolve("a.txt"), new byte[] { 4, 5, 6, 7 });
+            assertEquals(Collections.singletonList(subDir.resolve("a.txt").toAbsolutePath().toString()),
+                    watcher.awaitChangedFiles());
+        }
+    }
+
+    @Test
+    void watchedDirectoryIsRescannedWhenEventsAreLost() throws IOException, InterruptedException {
+        Path dir = tempDir.resolve("in");
+        Set<String> expected = new HashSet<String>();
+        try (ViralFileWatcher watcher = newWatcher(dir)) {
+            // more events than a watch key keeps (512) are signalled as an OVERFLOW
+            for (int i = 0; i < 600; i++) {
+                Path file = dir.resolve("file" + i + ".txt");
+                Files.write(file, ("file " + i).getBytes(StandardCharsets.UTF_8));
+                expected.add(file.toAbsolutePath().toString());
+            }
+            Set<String> reported = new HashSet<String>();
+            while (reported.size() < expected.size()) {
+                reported.addAll(watcher.awaitChangedFiles());
+            }
+            assertEquals(expected, reported);
+        }
+    }
+
+    @Test
+    void modifiedFileIsEncryptedAgain() throws IOException, InterruptedException {
+        final File ipFile = tempDir.resolve("in/a.txt").toFile();
+        ipFile.getParentFile().mkdirs();
+        byte[] content = "first content".getBytes(StandardCharsets.UTF_8);
+        Files.write(ipFile.toPath(), content);
+        File opFile = tempDir.resolve("out/a.txt").toFile();
+        final ByteArrayOutputStream console = new ByteArrayOutputStream();
+        Thread watch = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    new ViralFileCrypt(new PrintStream(console, true, "UTF-8")).processOptions(new String[] { "-s",
+                        SALT, "-i", tempDir.resolve("in/**/*").toString(), "-o", tempDir.resolve("out").toString(),
+                        "--watch" });
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+        };
+        watch.start();
+        try {
+            awaitContent(watch, opFile, crypt(content));
+
+            content = "modified content, longer than the first".getBytes(StandardCharsets.UTF_8);
+            Files.write(ipFile.toPath(), content);
+            awaitContent(watch, opFile, crypt(content));
+
+            byte[] newContent = "new file".getBytes(StandardCharsets.UTF_8);
+            Files.createDirectories(tempDir.resolve("in/sub"));
+            Files.write(tempDir.resolve("in/sub/b.txt"), newContent);
+            awaitContent(watch, tempDir.resolve("out/sub/b.txt").toFile(), crypt(newContent));
+        } finally {
+            watch.interrupt();
+            watch.join();
+            assertFalse(new String(console.toByteArray(), StandardCharsets.UTF_8).contains("Error(s)"),
+                    new String(console.toByteArray(), StandardCharsets.UTF_8));
+        }
+        assertArrayEquals(crypt(content), Files.readAllBytes(opFile.toPath()));
+    }
+
+}
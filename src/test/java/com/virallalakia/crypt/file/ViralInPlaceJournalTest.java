@@ -0,0 +1,173 @@
+package com.virallalakia.crypt.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Leaves the file and the journal of a run interrupted while a chunk was being overwritten, as the engine does, and
+ * checks that ViralCryptEngine resumes or rolls back the run to the exact bytes.
+ *
+ * @author Viral Lalakia (virallalakia)
+ * @copyright 2017 Viral Lalakia
+ * @license MIT License (https://opensource.org/licenses/MIT)
+ * @version 1.0
+ */
+class ViralInPlaceJournalTest {
+
+    private static final String SALT = "V_I_R_A_L_#_";
+    private static final int CHUNK_SIZE = 8 * ViralInPlaceJournal.BLOCK_SIZE;
+    private static final int SIZE = 2 * CHUNK_SIZE + 1000;
+
+    @TempDir
+    File tempDir;
+
+    private ViralCryptEngine engine;
+    private ViralCryptKernel kernel;
+    private File file;
+    private byte[] original;
+    private byte[] crypted;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        engine = new ViralCryptEngine(SALT, 1000, 1, 0, CHUNK_SIZE);
+        kernel = engine.getKernel();
+        original = new byte[SIZE];
+        new Random(SIZE).nextBytes(original);
+        crypted = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            crypted[i] = kernel.crypt(original[i], i);
+        }
+        file = new File(tempDir, "file.bin");
+    }
+
+    @AfterEach
+    void closeEngine() {
+        engine.close();
+    }
+
+    /**
+     * Journals the chunk and overwrites only the first bytes of it with the transformed chunk, as a run interrupted
+     * while writing the chunk.
+     */
+    private void interruptedChunk(ViralInPlaceJournal journal, byte state, long position, int length,
+            int writtenBytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer chunk = ByteBuffer.allocate(length);
+            ViralInPlaceJournal.readFully(channel, chunk, position);
+            chunk.flip();
+            journal.beginChunk();
+            journal.update(chunk);
+            journal.record(state, position);
+            kernel.crypt(chunk, position);
+            chunk.limit(writtenBytes);
+            ViralInPlaceJournal.writeFully(channel, chunk, position);
+        }
+    }
+
+    /**
+     * Leaves a run interrupted while encrypting the second chunk, after 3 of its blocks were written.
+     */
+    private void interruptedForwardRun(int writtenBytes) throws IOException {
+        Files.write(file.toPath(), original);
+        ViralInPlaceJournal journal = ViralInPlaceJournal.create(file, kernel.fingerprint(), SIZE, CHUNK_SIZE);
+        interruptedChunk(journal, ViralInPlaceJournal.STATE_FORWARD, 0, CHUNK_SIZE, CHUNK_SIZE);
+        interruptedChunk(journal, ViralInPlaceJournal.STATE_FORWARD, CHUNK_SIZE, CHUNK_SIZE, writtenBytes);
+        journal.close();
+    }
+
+    /**
+     * Leaves a rollback of an encrypted file interrupted while restoring the second chunk, after the last chunk was
+     * restored and 5 blocks of the second chunk were written.
+     */
+    private void interruptedBackwardRun() throws IOException {
+        Files.write(file.toPath(), crypted);
+        ViralInPlaceJournal journal = ViralInPlaceJournal.create(file, kernel.fingerprint(), SIZE, CHUNK_SIZE);
+        interruptedChunk(journal, ViralInPlaceJournal.STATE_BACKWARD, 2 * CHUNK_SIZE, 1000, 1000);
+        interruptedChunk(journal, ViralInPlaceJournal.STATE_BACKWARD, CHUNK_SIZE, CHUNK_SIZE,
+                5 * ViralInPlaceJournal.BLOCK_SIZE);
+        journal.close();
+    }
+
+    private void assertContent(byte[] expected, ViralCryptResult result) throws IOException {
+        assertTrue(result.isSuccess(), result.getError());
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+    }
+
+    private File getJournalFile() {
+        return ViralInPlaceJournal.getJournalFile(file);
+    }
+
+    @Test
+    void completedRunIsRolledBack() throws IOException {
+        Files.write(file.toPath(), original);
+        assertContent(crypted, engine.cryptFileInPlace(file.getPath(), false));
+        // the completed file is not processed twice
+        assertContent(crypted, engine.cryptFileInPlace(file.getPath(), false));
+        assertContent(original, engine.cryptFileInPlace(file.getPath(), true));
+        assertFalse(getJournalFile().exists());
+    }
+
+    @Test
+    void interruptedForwardRunIsResumed() throws IOException {
+        interruptedForwardRun(3 * ViralInPlaceJournal.BLOCK_SIZE);
+        ViralCryptResult result = engine.cryptFileInPlace(file.getPath(), false);
+        assertContent(crypted, result);
+        assertEquals(SIZE - CHUNK_SIZE, result.getBytes());
+        assertTrue(getJournalFile().exists());
+    }
+
+    @Test
+    void interruptedForwardRunIsRolledBack() throws IOException {
+        interruptedForwardRun(3 * ViralInPlaceJournal.BLOCK_SIZE);
+        assertContent(original, engine.cryptFileInPlace(file.getPath(), true));
+        assertFalse(getJournalFile().exists());
+    }
+
+    @Test
+    void interruptedBackwardRunIsResumed() throws IOException {
+        interruptedBackwardRun();
+        // a journal of a rollback is resumed as a rollback, even without rollback
+        assertContent(original, engine.cryptFileInPlace(file.getPath(), false));
+        assertFalse(getJournalFile().exists());
+
+        interruptedBackwardRun();
+        assertContent(original, engine.cryptFileInPlace(file.getPath(), true));
+        assertFalse(getJournalFile().exists());
+    }
+
+    @Test
+    void tornLatestRecordFallsBackToPreviousRecord() throws IOException {
+        // the record of the second chunk is torn, so none of its blocks were written
+        interruptedForwardRun(0);
+        try (RandomAccessFile raf = new RandomAccessFile(getJournalFile(), "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        ViralCryptResult result = engine.cryptFileInPlace(file.getPath(), false);
+        assertContent(crypted, result);
+        assertEquals(SIZE, result.getBytes());
+    }
+
+    @Test
+    void tornBlockIsNotRestored() throws IOException {
+        interruptedForwardRun(3 * ViralInPlaceJournal.BLOCK_SIZE + 100);
+        ViralCryptResult result = engine.cryptFileInPlace(file.getPath(), false);
+        assertFalse(result.isSuccess());
+        assertTrue(result.getError().contains("could not be restored"), result.getError());
+    }
+
+}